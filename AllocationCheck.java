@@ -0,0 +1,127 @@
+package core;
+
+import core.API.Elevator;
+import core.API.Passenger;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Fails if onTick allocates on any tick of seeded self-play games once the strategy is warmed up.
+ * Both players are measured, commands are buffered during onTick and passed to the simulator afterwards,
+ * so its allocations don't count. The JVM itself sometimes allocates a few bytes on the game thread
+ * (deoptimization, linking), so every game is played twice and a tick fails if it allocates both times;
+ * the time budgets are turned off to make the two plays the same.
+ * Usage: AllocationCheck [games] [seed]
+ */
+public class AllocationCheck {
+    private static final int WARMUP_GAMES = 3;
+    private static final int MAX_COMMANDS = Short.MAX_VALUE;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        final int games = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        final long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        System.setProperty("strategy.planBudgetNanos", "0");
+        System.setProperty("strategy.tickDeadlineNanos", "0");
+        for (int i = 0; i < WARMUP_GAMES; i++) {
+            new Simulator(seed + games + i).play(new CheckedStrategy(), new CheckedStrategy());
+        }
+
+        int failures = 0;
+        int once = 0;
+        long ticks = 0;
+        for (int game = 0; game < games; game++) {
+            final CheckedStrategy[] first = play(seed + game);
+            final CheckedStrategy[] again = play(seed + game);
+            for (int player = 0; player < 2; player++) {
+                final CheckedStrategy strategy = first[player];
+                ticks += strategy.ticks;
+                for (int i = 0; i < strategy.allocating; i++) {
+                    final int tick = strategy.allocatingTicks[i];
+                    if(again[player].allocated[tick] == 0) {
+                        once++;
+                    } else if(failures++ < 20) {
+                        System.out.println("seed " + (seed + game) + ", player " + (player + 1) + ", tick " + tick + ": " +
+                                strategy.allocated[tick] + " and " + again[player].allocated[tick] + " bytes");
+                    }
+                }
+            }
+        }
+        System.out.println(ticks + " ticks, " + failures + " allocating, " + once + " allocating in one play only");
+        if(failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static CheckedStrategy[] play(long seed) {
+        final CheckedStrategy[] players = {new CheckedStrategy(), new CheckedStrategy()};
+        new Simulator(seed).play(players[0], players[1]);
+        return players;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class CheckedStrategy extends Strategy {
+        private final BufferedCommands buffer = new BufferedCommands();
+        final int[] allocatingTicks = new int[Simulator.MAX_TIME];
+        final long[] allocated = new long[Simulator.MAX_TIME + 1]; // by tick
+        int allocating;
+        int ticks;
+
+        @Override
+        void setCommands(Commands commands) {
+            buffer.target = commands;
+            super.setCommands(buffer);
+        }
+
+        @Override
+        public void onTick(List<Passenger> myPassengers, List<Elevator> myElevators, List<Passenger> enemyPassengers, List<Elevator> enemyElevators) {
+            final long before = allocatedBytes();
+            super.onTick(myPassengers, myElevators, enemyPassengers, enemyElevators);
+            final long bytes = allocatedBytes() - before;
+            ticks++;
+            if(bytes > 0) {
+                allocatingTicks[allocating++] = ticks;
+                allocated[ticks] = bytes;
+            }
+            buffer.flush();
+        }
+    }
+
+    /** keeps the commands of a tick and passes them to the target with flush(), outside the measured call */
+    static class BufferedCommands implements Strategy.Commands {
+        private final Elevator[] elevators = new Elevator[MAX_COMMANDS];
+        private final Passenger[] passengers = new Passenger[MAX_COMMANDS]; // null - goToFloor
+        private final int[] floors = new int[MAX_COMMANDS];
+        private int count;
+        Strategy.Commands target;
+
+        @Override
+        public void goToFloor(Elevator elevator, int floor) {
+            elevators[count] = elevator;
+            passengers[count] = null;
+            floors[count++] = floor;
+        }
+
+        @Override
+        public void setElevator(Passenger passenger, Elevator elevator) {
+            elevators[count] = elevator;
+            passengers[count++] = passenger;
+        }
+
+        void flush() {
+            for (int i = 0; i < count; i++) {
+                if(passengers[i] == null) {
+                    target.goToFloor(elevators[i], floors[i]);
+                } else {
+                    target.setElevator(passengers[i], elevators[i]);
+                }
+            }
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Time of the onTick phases and the tick deadline.
+ * With -Dstrategy.profile=true every phase is recorded into a log-linear histogram (a small HdrHistogram,
+ * 1/8 of a power of two per bucket), with the allocated bytes per tick, and p50/p99/max are printed at the end of the game.
+ * The watchdog works without it: when the tick has used most of -Dstrategy.tickDeadlineNanos
+ * the rest of the tick takes cheap decisions, 0 turns it off.
+ */
+class Profiler {
+    static final boolean ENABLED = Boolean.getBoolean("strategy.profile");
+    static final long DEADLINE_NANOS = Long.getLong("strategy.tickDeadlineNanos", 20_000_000);
+    private static final long WATCHDOG_NANOS = DEADLINE_NANOS * 4 / 5; // leaves time for the fallback and the game
+
+    static final int UPDATE = 0; // registry, kinematics, arrivals
+    static final int EXPECTED_PASSENGERS = 1;
+    static final int BY_FLOOR = 2;
+    static final int FILLING = 3;
+    static final int DISPATCH = 4; // evaluateFloor, planner, joint assignment
+    static final int TICK = 5;
+    private static final String[] PHASES = {"update", "calcExpectedPassengers", "byFloor", "filling", "dispatch", "tick"};
+
+    private static final ThreadMXBean THREADS = ENABLED ? ManagementFactory.getThreadMXBean() : null;
+
+    private final Histogram[] phases = new Histogram[PHASES.length];
+    private final Histogram allocation = new Histogram();
+    private final long[] totals = new long[PHASES.length];
+    private long tickStart;
+    private long allocatedAtStart;
+    private int fallbackTicks;
+    private boolean fallback;
+
+    Profiler() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+    void tickStart() {
+        fallback = false;
+        tickStart = System.nanoTime();
+        if(ENABLED) {
+            allocatedAtStart = allocatedBytes();
+        }
+    }
+
+    /** the start of the next phase */
+    long phaseEnd(int phase, long start) {
+        final long now = System.nanoTime();
+        totals[phase] += now - start;
+        if(ENABLED) {
+            phases[phase].record(now - start);
+        }
+        checkDeadline(now);
+        return now;
+    }
+
+    /** the tick is close to the deadline, decisions have to be cheap; checked on every call, nanoTime is cheap */
+    boolean fallback() {
+        if(!fallback) {
+            checkDeadline(System.nanoTime());
+        }
+        return fallback;
+    }
+
+    private void checkDeadline(long now) {
+        if(!fallback && DEADLINE_NANOS > 0 && now - tickStart > WATCHDOG_NANOS) {
+            fallback = true;
+            fallbackTicks++;
+        }
+    }
+
+    /** nanoseconds spent in the phase since the start of the game */
+    long total(int phase) {
+        return totals[phase];
+    }
+
+    void tickEnd() {
+        if(ENABLED) {
+            phases[TICK].record(System.nanoTime() - tickStart);
+            allocation.record(allocatedBytes() - allocatedAtStart);
+        }
+    }
+
+    String summary() {
+        final StringBuilder result = new StringBuilder(String.format("%-24s %10s %10s %10s %10s%n", "phase", "count", "p50", "p99", "max"));
+        for (int i = 0; i < phases.length; i++) {
+            phases[i].appendTo(result, PHASES[i] + ", ns");
+        }
+        allocation.appendTo(result, "allocated, bytes");
+        result.append("ticks with cheap decisions: ").append(fallbackTicks);
+        return result.toString();
+    }
+
+    @SuppressWarnings("restriction")
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** counts by the highest bit and the next 3 bits of the value */
+    private static class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long count;
+        private long max;
+
+        void record(long value) {
+            if(value < 0) {
+                value = 0;
+            }
+            counts[bucket(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        private static int bucket(long value) {
+            if(value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int highest = 63 - Long.numberOfLeadingZeros(value);
+            return highest * SUB_BUCKETS + (int) ((value >>> (highest - 3)) & (SUB_BUCKETS - 1));
+        }
+
+        /** the largest value of the bucket */
+        private static long highest(int bucket) {
+            if(bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            final int highest = bucket / SUB_BUCKETS;
+            final long sub = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (highest - 3)) - 1;
+        }
+
+        long percentile(double percentile) {
+            final long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if(seen >= rank && seen > 0) {
+                    return Math.min(highest(bucket), max);
+                }
+            }
+            return max;
+        }
+
+        void appendTo(StringBuilder out, String name) {
+            out.append(String.format("%-24s %10d %10d %10d %10d%n", name, count, percentile(50), percentile(99), max));
+        }
+    }
+}
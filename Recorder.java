@@ -0,0 +1,396 @@
+package core;
+
+import core.API.Elevator;
+import core.API.Passenger;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records what the strategy sees and does: one frame per tick with the four onTick lists and the issued commands.
+ * Turned on with -Dstrategy.record=&lt;file&gt;: every strategy writes its own &lt;file&gt;.1, &lt;file&gt;.2, ...
+ * in the order they are created.
+ * Read back with {@link Replayer}. Every frame is written as soon as the tick ends, so a game that stops early
+ * leaves a complete recording of the ticks played.
+ *
+ * Frames are columnar: passengers present in the frame are rows in id order, every column is a bitmap of rows
+ * that differ from the prediction (previous value, timeToAway - 1, timeOnFloor + 1) followed by the new values
+ * of those rows only. A full game takes a few MB.
+ */
+class Recorder {
+    private static final String FILE = System.getProperty("strategy.record");
+    private static final AtomicInteger RECORDINGS = new AtomicInteger();
+
+    static final int MAGIC = 0x434c5243; // CLRC
+    static final int VERSION = 1;
+    static final int MAX_PASSENGER_ID = 255;
+    static final int MAX_ELEVATOR_ID = 8;
+    static final String FIRST_PLAYER = "FIRST_PLAYER";
+    static final String SECOND_PLAYER = "SECOND_PLAYER";
+
+    // passenger flags
+    static final int FIRST_PLAYER_TYPE = 1;
+    static final int MY_LIST = 2;
+    static final int ENEMY_LIST = 4;
+    static final int IN_ELEVATOR = 8;
+
+    // elevator field mask
+    static final int E_TYPE = 1;
+    static final int E_Y = 2;
+    static final int E_STATE = 4;
+    static final int E_SPEED = 8;
+    static final int E_FLOOR = 16;
+    static final int E_NEXT_FLOOR = 32;
+    static final int E_TIME_ON_FLOOR = 64;
+    static final int E_PASSENGERS = 128;
+
+    static final byte GO_TO_FLOOR = 1;
+    static final byte SET_ELEVATOR = 2;
+
+    private final String file;
+    private final State state = new State();
+    private final ByteBuffer frame = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    private final int[] rows = new int[MAX_PASSENGER_ID + 1];
+    private OutputStream out;
+    private int commandsCountAt;
+    private int commands;
+
+    private Recorder(String file) {
+        this.file = file;
+    }
+
+    /** a recorder with a file of its own if -Dstrategy.record is set */
+    static Recorder fromProperty() {
+        return FILE != null ? new Recorder(FILE + "." + RECORDINGS.incrementAndGet()) : null;
+    }
+
+    void frameStart(int tick, List<Passenger> myPassengers, List<Elevator> myElevators, List<Passenger> enemyPassengers, List<Elevator> enemyElevators) {
+        frame.clear();
+        frame.putInt(0); // size
+        frame.putInt(tick);
+
+        state.beginFrame();
+        collect(myPassengers, MY_LIST);
+        collect(enemyPassengers, ENEMY_LIST);
+        collectInside(myElevators);
+        collectInside(enemyElevators);
+        writePassengers();
+
+        writeOrder(myPassengers, MY_LIST);
+        writeOrder(enemyPassengers, ENEMY_LIST);
+        writeElevators(myElevators);
+        writeElevators(enemyElevators);
+
+        commandsCountAt = frame.position();
+        frame.putShort((short) 0);
+        commands = 0;
+    }
+
+    void goToFloor(Elevator elevator, int floor) {
+        command(GO_TO_FLOOR, elevator.getId(), floor);
+    }
+
+    void setElevator(Passenger passenger, Elevator elevator) {
+        command(SET_ELEVATOR, elevator.getId(), passenger.getId());
+    }
+
+    void frameEnd() {
+        frame.putShort(commandsCountAt, (short) commands);
+        frame.putInt(0, frame.position() - 4);
+        try {
+            if(out == null) {
+                out = new FileOutputStream(file); // frames are buffered, one write per tick
+                final ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                out.write(header.putInt(MAGIC).putInt(VERSION).array());
+            }
+            out.write(frame.array(), 0, frame.position());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void close() {
+        if(out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        out = null;
+    }
+
+    private void command(byte type, int elevatorId, int arg) {
+        frame.put(type);
+        frame.put((byte) elevatorId);
+        frame.putShort((short) arg);
+        commands++;
+    }
+
+    private void collect(List<Passenger> passengers, int list) {
+        for (int i = 0; i < passengers.size(); i++) {
+            observe(passengers.get(i), list);
+        }
+    }
+
+    private void collectInside(List<Elevator> elevators) {
+        for (int e = 0; e < elevators.size(); e++) {
+            final List<Passenger> inside = elevators.get(e).getPassengers();
+            for (int i = 0; i < inside.size(); i++) {
+                observe(inside.get(i), IN_ELEVATOR);
+            }
+        }
+    }
+
+    private void observe(Passenger passenger, int flag) {
+        final int id = passenger.getId();
+        final State s = state;
+        if(!s.present[id]) {
+            s.present[id] = true;
+            s.flags[id] = (passenger.getType().equals(FIRST_PLAYER) ? FIRST_PLAYER_TYPE : 0) | flag;
+            s.elevator[id] = passenger.getElevator() != null ? passenger.getElevator() : 0;
+            s.fromFloor[id] = passenger.getFromFloor();
+            s.destFloor[id] = passenger.getDestFloor();
+            s.floor[id] = passenger.getFloor();
+            s.state[id] = passenger.getState();
+            s.timeToAway[id] = passenger.getTimeToAway();
+            s.x[id] = passenger.getX();
+            s.y[id] = passenger.getY();
+            s.weight[id] = passenger.getWeight();
+        } else {
+            s.flags[id] |= flag;
+        }
+    }
+
+    private void writePassengers() {
+        final State s = state;
+        int count = 0;
+        final byte[] presence = new byte[(MAX_PASSENGER_ID + 8) / 8];
+        for (int id = 0; id <= MAX_PASSENGER_ID; id++) {
+            if(s.present[id]) {
+                presence[id >>> 3] |= 1 << (id & 7);
+                rows[count++] = id;
+            }
+        }
+        frame.put(presence);
+
+        for (int column = 0; column < State.COLUMNS; column++) {
+            final int bitmapAt = frame.position();
+            final int bitmapSize = (count + 7) / 8;
+            for (int i = 0; i < bitmapSize; i++) {
+                frame.put((byte) 0);
+            }
+            for (int row = 0; row < count; row++) {
+                final int id = rows[row];
+                if(s.changed(column, id)) {
+                    frame.put(bitmapAt + (row >>> 3), (byte) (frame.get(bitmapAt + (row >>> 3)) | 1 << (row & 7)));
+                    s.write(column, id, frame);
+                }
+            }
+        }
+        s.endPassengers();
+    }
+
+    private void writeOrder(List<Passenger> passengers, int list) {
+        frame.putShort((short) passengers.size());
+        int last = -1;
+        boolean ascending = true;
+        for (int i = 0; i < passengers.size() && ascending; i++) {
+            ascending = passengers.get(i).getId() > last;
+            last = passengers.get(i).getId();
+        }
+        frame.put((byte) (ascending ? 0 : 1));
+        if(!ascending) {
+            for (int i = 0; i < passengers.size(); i++) {
+                frame.putShort((short) (int) passengers.get(i).getId());
+            }
+        }
+    }
+
+    private void writeElevators(List<Elevator> elevators) {
+        final State s = state;
+        frame.put((byte) elevators.size());
+        for (int e = 0; e < elevators.size(); e++) {
+            final Elevator elevator = elevators.get(e);
+            final int id = elevator.getId();
+            final int type = elevator.getType().equals(FIRST_PLAYER) ? 1 : 0;
+            final double y = elevator.getY();
+            final double speed = elevator.getSpeed();
+            final int nextFloor = elevator.getNextFloor() != null ? elevator.getNextFloor() : 0;
+            final List<Passenger> inside = elevator.getPassengers();
+            boolean sameInside = s.insideCount[id] == inside.size();
+            for (int i = 0; i < inside.size() && sameInside; i++) {
+                sameInside = s.inside[id][i] == inside.get(i).getId();
+            }
+
+            final boolean known = s.elevatorKnown[id];
+            int mask = 0;
+            mask |= !known || s.elevatorType[id] != type ? E_TYPE : 0;
+            mask |= !known || Double.doubleToLongBits(s.elevatorY[id]) != Double.doubleToLongBits(y) ? E_Y : 0;
+            mask |= !known || s.elevatorState[id] != elevator.getState() ? E_STATE : 0;
+            mask |= !known || Double.doubleToLongBits(s.speed[id]) != Double.doubleToLongBits(speed) ? E_SPEED : 0;
+            mask |= !known || s.elevatorFloor[id] != elevator.getFloor() ? E_FLOOR : 0;
+            mask |= !known || s.nextFloor[id] != nextFloor ? E_NEXT_FLOOR : 0;
+            mask |= !known || s.timeOnFloor[id] + 1 != elevator.getTimeOnFloor() ? E_TIME_ON_FLOOR : 0;
+            mask |= !known || !sameInside ? E_PASSENGERS : 0;
+
+            s.elevatorKnown[id] = true;
+            s.elevatorType[id] = type;
+            s.elevatorY[id] = y;
+            s.elevatorState[id] = elevator.getState();
+            s.speed[id] = speed;
+            s.elevatorFloor[id] = elevator.getFloor();
+            s.nextFloor[id] = nextFloor;
+            s.timeOnFloor[id] = elevator.getTimeOnFloor();
+
+            frame.put((byte) id);
+            frame.put((byte) mask);
+            if((mask & E_TYPE) != 0) frame.put((byte) type);
+            if((mask & E_Y) != 0) frame.putDouble(y);
+            if((mask & E_STATE) != 0) frame.put((byte) s.elevatorState[id]);
+            if((mask & E_SPEED) != 0) frame.putDouble(speed);
+            if((mask & E_FLOOR) != 0) frame.put((byte) s.elevatorFloor[id]);
+            if((mask & E_NEXT_FLOOR) != 0) frame.put((byte) nextFloor);
+            if((mask & E_TIME_ON_FLOOR) != 0) frame.putInt(s.timeOnFloor[id]);
+            if((mask & E_PASSENGERS) != 0) {
+                frame.put((byte) inside.size());
+                s.insideCount[id] = inside.size();
+                for (int i = 0; i < inside.size(); i++) {
+                    s.inside[id][i] = inside.get(i).getId();
+                    frame.putShort((short) s.inside[id][i]);
+                }
+            }
+        }
+    }
+
+    /** what the reader knows after the last frame, the same on both sides */
+    static class State {
+        static final int COLUMNS = 10;
+        static final int C_FLAGS = 0;
+        static final int C_ELEVATOR = 1;
+        static final int C_FROM_FLOOR = 2;
+        static final int C_DEST_FLOOR = 3;
+        static final int C_FLOOR = 4;
+        static final int C_STATE = 5;
+        static final int C_TIME_TO_AWAY = 6;
+        static final int C_X = 7;
+        static final int C_Y = 8;
+        static final int C_WEIGHT = 9;
+
+        final boolean[] present = new boolean[MAX_PASSENGER_ID + 1];
+        final boolean[] wasPresent = new boolean[MAX_PASSENGER_ID + 1];
+        final int[] flags = new int[MAX_PASSENGER_ID + 1];
+        final int[] elevator = new int[MAX_PASSENGER_ID + 1];
+        final int[] fromFloor = new int[MAX_PASSENGER_ID + 1];
+        final int[] destFloor = new int[MAX_PASSENGER_ID + 1];
+        final int[] floor = new int[MAX_PASSENGER_ID + 1];
+        final int[] state = new int[MAX_PASSENGER_ID + 1];
+        final int[] timeToAway = new int[MAX_PASSENGER_ID + 1];
+        final double[] x = new double[MAX_PASSENGER_ID + 1];
+        final double[] y = new double[MAX_PASSENGER_ID + 1];
+        final double[] weight = new double[MAX_PASSENGER_ID + 1];
+        // values of the last frame, predictions are made from them
+        final long[][] last = new long[COLUMNS][MAX_PASSENGER_ID + 1];
+
+        final boolean[] elevatorKnown = new boolean[MAX_ELEVATOR_ID + 1];
+        final int[] elevatorType = new int[MAX_ELEVATOR_ID + 1];
+        final double[] elevatorY = new double[MAX_ELEVATOR_ID + 1];
+        final int[] elevatorState = new int[MAX_ELEVATOR_ID + 1];
+        final double[] speed = new double[MAX_ELEVATOR_ID + 1];
+        final int[] elevatorFloor = new int[MAX_ELEVATOR_ID + 1];
+        final int[] nextFloor = new int[MAX_ELEVATOR_ID + 1];
+        final int[] timeOnFloor = new int[MAX_ELEVATOR_ID + 1];
+        final int[] insideCount = new int[MAX_ELEVATOR_ID + 1];
+        final int[][] inside = new int[MAX_ELEVATOR_ID + 1][64];
+
+        void beginFrame() {
+            System.arraycopy(present, 0, wasPresent, 0, present.length);
+            java.util.Arrays.fill(present, false);
+        }
+
+        long value(int column, int id) {
+            switch (column) {
+                case C_FLAGS: return flags[id];
+                case C_ELEVATOR: return elevator[id];
+                case C_FROM_FLOOR: return fromFloor[id];
+                case C_DEST_FLOOR: return destFloor[id];
+                case C_FLOOR: return floor[id];
+                case C_STATE: return state[id];
+                case C_TIME_TO_AWAY: return timeToAway[id];
+                case C_X: return Double.doubleToLongBits(x[id]);
+                case C_Y: return Double.doubleToLongBits(y[id]);
+                default: return Double.doubleToLongBits(weight[id]);
+            }
+        }
+
+        long predicted(int column, int id) {
+            return column == C_TIME_TO_AWAY ? last[column][id] - 1 : last[column][id];
+        }
+
+        boolean changed(int column, int id) {
+            return !wasPresent[id] || value(column, id) != predicted(column, id);
+        }
+
+        void write(int column, int id, ByteBuffer to) {
+            switch (column) {
+                case C_FLAGS: to.put((byte) flags[id]); break;
+                case C_ELEVATOR: to.put((byte) elevator[id]); break;
+                case C_FROM_FLOOR: to.put((byte) fromFloor[id]); break;
+                case C_DEST_FLOOR: to.put((byte) destFloor[id]); break;
+                case C_FLOOR: to.put((byte) floor[id]); break;
+                case C_STATE: to.put((byte) state[id]); break;
+                case C_TIME_TO_AWAY: to.putShort((short) timeToAway[id]); break;
+                case C_X: to.putDouble(x[id]); break;
+                case C_Y: to.putDouble(y[id]); break;
+                default: to.putDouble(weight[id]);
+            }
+        }
+
+        void read(int column, int id, ByteBuffer from) {
+            switch (column) {
+                case C_FLAGS: flags[id] = from.get(); break;
+                case C_ELEVATOR: elevator[id] = from.get(); break;
+                case C_FROM_FLOOR: fromFloor[id] = from.get(); break;
+                case C_DEST_FLOOR: destFloor[id] = from.get(); break;
+                case C_FLOOR: floor[id] = from.get(); break;
+                case C_STATE: state[id] = from.get(); break;
+                case C_TIME_TO_AWAY: timeToAway[id] = from.getShort(); break;
+                case C_X: x[id] = from.getDouble(); break;
+                case C_Y: y[id] = from.getDouble(); break;
+                default: weight[id] = from.getDouble();
+            }
+        }
+
+        /** applies the prediction to a row that didn't change */
+        void predict(int column, int id) {
+            switch (column) {
+                case C_FLAGS: flags[id] = (int) last[column][id]; break;
+                case C_ELEVATOR: elevator[id] = (int) last[column][id]; break;
+                case C_FROM_FLOOR: fromFloor[id] = (int) last[column][id]; break;
+                case C_DEST_FLOOR: destFloor[id] = (int) last[column][id]; break;
+                case C_FLOOR: floor[id] = (int) last[column][id]; break;
+                case C_STATE: state[id] = (int) last[column][id]; break;
+                case C_TIME_TO_AWAY: timeToAway[id] = (int) predicted(column, id); break;
+                case C_X: x[id] = Double.longBitsToDouble(last[column][id]); break;
+                case C_Y: y[id] = Double.longBitsToDouble(last[column][id]); break;
+                default: weight[id] = Double.longBitsToDouble(last[column][id]);
+            }
+        }
+
+        void endPassengers() {
+            for (int id = 0; id <= MAX_PASSENGER_ID; id++) {
+                if(present[id]) {
+                    for (int column = 0; column < COLUMNS; column++) {
+                        last[column][id] = value(column, id);
+                    }
+                }
+            }
+        }
+    }
+}
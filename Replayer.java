@@ -0,0 +1,229 @@
+package core;
+
+import core.API.Elevator;
+import core.API.Passenger;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a {@link Recorder} file back into a fresh Strategy. The file is memory-mapped and decoded in place,
+ * commands the strategy issues are compared with the recorded ones.
+ * The planner and the tick watchdog decide by the clock, so both the recording and the replay have to run with
+ * -Dstrategy.planBudgetNanos=0 -Dstrategy.tickDeadlineNanos=0, otherwise commands differ without a bug.
+ * Usage: Replayer &lt;file&gt;
+ */
+public class Replayer {
+    private static final int MAX_COMMANDS = Short.MAX_VALUE;
+
+    private final MappedByteBuffer buffer;
+    private final Recorder.State state = new Recorder.State();
+    private final Passenger[] views = new Passenger[Recorder.MAX_PASSENGER_ID + 1];
+    private final int[] rows = new int[Recorder.MAX_PASSENGER_ID + 1];
+
+    // the last decoded frame
+    int tick;
+    final List<Passenger> myPassengers = new ArrayList<>();
+    final List<Elevator> myElevators = new ArrayList<>();
+    final List<Passenger> enemyPassengers = new ArrayList<>();
+    final List<Elevator> enemyElevators = new ArrayList<>();
+    int commands;
+    final int[] commandTypes = new int[MAX_COMMANDS];
+    final int[] commandElevators = new int[MAX_COMMANDS];
+    final int[] commandArgs = new int[MAX_COMMANDS];
+
+    public Replayer(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.getInt() != Recorder.MAGIC) {
+            throw new IllegalArgumentException("not a recording");
+        }
+        final int version = buffer.getInt();
+        if(version != Recorder.VERSION) {
+            throw new IllegalArgumentException("unsupported recording version " + version);
+        }
+    }
+
+    public boolean hasNext() {
+        return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) <= buffer.remaining() - 4;
+    }
+
+    /** decodes the next frame into the lists of this replayer */
+    public void next() {
+        buffer.getInt(); // size
+        tick = buffer.getInt();
+
+        readPassengers();
+        readOrder(myPassengers, Recorder.MY_LIST);
+        readOrder(enemyPassengers, Recorder.ENEMY_LIST);
+        readElevators(myElevators);
+        readElevators(enemyElevators);
+
+        commands = buffer.getShort();
+        for (int i = 0; i < commands; i++) {
+            commandTypes[i] = buffer.get();
+            commandElevators[i] = buffer.get();
+            commandArgs[i] = buffer.getShort();
+        }
+    }
+
+    /** feeds the last decoded frame to the strategy */
+    public void feed(Strategy strategy) {
+        strategy.onTick(myPassengers, myElevators, enemyPassengers, enemyElevators);
+    }
+
+    private void readPassengers() {
+        final Recorder.State s = state;
+        s.beginFrame();
+        int count = 0;
+        for (int i = 0; i < (Recorder.MAX_PASSENGER_ID + 8) / 8; i++) {
+            final int bits = buffer.get() & 0xff;
+            for (int bit = 0; bit < 8; bit++) {
+                if((bits & 1 << bit) != 0) {
+                    final int id = i * 8 + bit;
+                    s.present[id] = true;
+                    rows[count++] = id;
+                }
+            }
+        }
+        for (int column = 0; column < Recorder.State.COLUMNS; column++) {
+            final int bitmapAt = buffer.position();
+            buffer.position(bitmapAt + (count + 7) / 8);
+            for (int row = 0; row < count; row++) {
+                if((buffer.get(bitmapAt + (row >>> 3)) & 1 << (row & 7)) != 0) {
+                    s.read(column, rows[row], buffer);
+                } else {
+                    s.predict(column, rows[row]);
+                }
+            }
+        }
+        s.endPassengers();
+
+        for (int row = 0; row < count; row++) {
+            final int id = rows[row];
+            views[id] = new Passenger(id, s.elevator[id] != 0 ? s.elevator[id] : null, s.fromFloor[id], s.destFloor[id], s.timeToAway[id],
+                    (s.flags[id] & Recorder.FIRST_PLAYER_TYPE) != 0 ? Recorder.FIRST_PLAYER : Recorder.SECOND_PLAYER,
+                    s.floor[id], s.x[id], s.y[id], s.state[id], s.weight[id]);
+        }
+    }
+
+    private void readOrder(List<Passenger> passengers, int list) {
+        passengers.clear();
+        final int count = buffer.getShort();
+        final boolean ascending = buffer.get() == 0;
+        if(ascending) {
+            for (int id = 0; id <= Recorder.MAX_PASSENGER_ID; id++) {
+                if(state.present[id] && (state.flags[id] & list) != 0) {
+                    passengers.add(views[id]);
+                }
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                passengers.add(views[buffer.getShort()]);
+            }
+        }
+    }
+
+    private void readElevators(List<Elevator> elevators) {
+        final Recorder.State s = state;
+        elevators.clear();
+        final int count = buffer.get();
+        for (int e = 0; e < count; e++) {
+            final int id = buffer.get();
+            final int mask = buffer.get() & 0xff;
+            if((mask & Recorder.E_TYPE) != 0) s.elevatorType[id] = buffer.get();
+            if((mask & Recorder.E_Y) != 0) s.elevatorY[id] = buffer.getDouble();
+            if((mask & Recorder.E_STATE) != 0) s.elevatorState[id] = buffer.get();
+            if((mask & Recorder.E_SPEED) != 0) s.speed[id] = buffer.getDouble();
+            if((mask & Recorder.E_FLOOR) != 0) s.elevatorFloor[id] = buffer.get();
+            if((mask & Recorder.E_NEXT_FLOOR) != 0) s.nextFloor[id] = buffer.get();
+            s.timeOnFloor[id] = (mask & Recorder.E_TIME_ON_FLOOR) != 0 ? buffer.getInt() : s.timeOnFloor[id] + 1;
+            if((mask & Recorder.E_PASSENGERS) != 0) {
+                s.insideCount[id] = buffer.get();
+                for (int i = 0; i < s.insideCount[id]; i++) {
+                    s.inside[id][i] = buffer.getShort();
+                }
+            }
+            final List<Passenger> inside = new ArrayList<>(s.insideCount[id]);
+            for (int i = 0; i < s.insideCount[id]; i++) {
+                inside.add(views[s.inside[id][i]]);
+            }
+            elevators.add(new Elevator(id, s.elevatorY[id], inside, s.elevatorState[id], s.speed[id], s.elevatorFloor[id],
+                    s.nextFloor[id] != 0 ? s.nextFloor[id] : null, s.timeOnFloor[id],
+                    s.elevatorType[id] == 1 ? Recorder.FIRST_PLAYER : Recorder.SECOND_PLAYER));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("usage: Replayer <file>");
+            System.exit(1);
+        }
+        final Replayer replayer = new Replayer(Paths.get(args[0]));
+        final Strategy strategy = new Strategy();
+        final CollectingCommands issued = new CollectingCommands();
+        strategy.setCommands(issued);
+
+        int frames = 0;
+        int diverged = 0;
+        final long start = System.nanoTime();
+        while (replayer.hasNext()) {
+            replayer.next();
+            issued.count = 0;
+            replayer.feed(strategy);
+            frames++;
+            if(!issued.same(replayer)) {
+                if(diverged++ < 20) {
+                    System.out.println("tick " + replayer.tick + ": recorded " + replayer.commands + " commands, issued " + issued.count);
+                }
+            }
+        }
+        final long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.println(frames + " frames in " + ms + " ms, " + diverged + " with different commands");
+    }
+
+    private static class CollectingCommands implements Strategy.Commands {
+        final int[] types = new int[MAX_COMMANDS];
+        final int[] elevators = new int[MAX_COMMANDS];
+        final int[] args = new int[MAX_COMMANDS];
+        int count;
+
+        @Override
+        public void goToFloor(Elevator elevator, int floor) {
+            add(Recorder.GO_TO_FLOOR, elevator.getId(), floor);
+        }
+
+        @Override
+        public void setElevator(Passenger passenger, Elevator elevator) {
+            add(Recorder.SET_ELEVATOR, elevator.getId(), passenger.getId());
+        }
+
+        private void add(int type, int elevatorId, int arg) {
+            types[count] = type;
+            elevators[count] = elevatorId;
+            args[count] = arg;
+            count++;
+        }
+
+        boolean same(Replayer recorded) {
+            if(count != recorded.commands) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if(types[i] != recorded.commandTypes[i] || elevators[i] != recorded.commandElevators[i] || args[i] != recorded.commandArgs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
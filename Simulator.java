@@ -0,0 +1,473 @@
+package core;
+
+import core.API.Elevator;
+import core.API.Passenger;
+
+import java.util.*;
+
+/**
+ * Headless local game for self-play: the rules the strategy encodes (elevator and passenger state machines,
+ * doors, stairs, walking and weight-based speed) without the server and network.
+ * Decisions are taken through {@link Strategy.Commands}, API objects are built with their all-fields constructors.
+ * Usage: Simulator [games] [seed]
+ */
+public class Simulator {
+    static final String FIRST_PLAYER = "FIRST_PLAYER";
+    static final String SECOND_PLAYER = "SECOND_PLAYER";
+
+    static final int ELEVATOR_WAITING = 0;
+    static final int ELEVATOR_MOVING = 1;
+    static final int ELEVATOR_OPENING = 2;
+    static final int ELEVATOR_FILLING = 3;
+    static final int ELEVATOR_CLOSING = 4;
+
+    static final int PASSENGER_WAITING_FOR_ELEVATOR = 1;
+    static final int PASSENGER_MOVING_TO_ELEVATOR = 2;
+    static final int PASSENGER_RETURNING = 3;
+    static final int PASSENGER_MOVING_TO_FLOOR = 4;
+    static final int PASSENGER_USING_ELEVATOR = 5;
+    static final int PASSENGER_EXITING = 6;
+
+    static final int FLOORS = 9;
+    static final int ELEVATORS = 8;
+    static final int MAX_PASSENGERS = 20;
+    static final int TICKS_TO_EXIT = 40;
+    static final int TICKS_TO_CALL_ENEMY = 40;
+    static final int TICKS_TO_STAY_OPEN = 40;
+    static final int WALKING_TIME = 500;
+    static final int TIME_TO_AWAY = 500;
+    static final int DOORS_TIME = 100;
+    static final int TICKS_PER_FLOOR = 50;
+    static final int HORIZONTAL_SPEED = 2;
+    static final int TICKS_PER_FLOOR_STAIRS_UP = 200;
+    static final int TICKS_PER_FLOOR_STAIRS_DOWN = 100;
+    static final int FIRST_ELEVATOR_POSITION = 60;
+    static final int ELEVATOR_OFFSET = 80;
+    static final int PASSENGER_POSITION = 20;
+    static final int SPAWN_PERIOD = 20;
+    static final int SPAWN_TIME = 2000;
+    static final int VISITS = 5;
+    static final int MAX_TIME = 7200;
+
+    private final Random random;
+    private final Random tieBreak;
+    private final List<SimElevator> elevators = new ArrayList<>();
+    private final List<SimPassenger> passengers = new ArrayList<>();
+    private final SimPassenger[] passengersById = new SimPassenger[2 * SPAWN_TIME / SPAWN_PERIOD + 1];
+    private final Passenger[] views = new Passenger[passengersById.length];
+    private final List<int[]> routes = new ArrayList<>(); // pair -> destinations
+    private final int[] score = new int[2];
+    private Strategy first;
+    private Strategy second;
+    private PlayerCommands firstCommands;
+    private PlayerCommands secondCommands;
+    private int tick;
+
+    public Simulator(long seed) {
+        random = new Random(seed);
+        tieBreak = new Random(~seed);
+        for (int id = 1; id <= ELEVATORS; id++) {
+            elevators.add(new SimElevator(id, id % 2 == 1 ? FIRST_PLAYER : SECOND_PLAYER));
+        }
+    }
+
+    /** plays a full game and returns {first player score, second player score} */
+    public int[] play(Strategy first, Strategy second) {
+        start(first, second);
+        while (step()) {
+        }
+        return score();
+    }
+
+    /** prepares a game to be played tick by tick with {@link #step()} */
+    public void start(Strategy first, Strategy second) {
+        this.first = first;
+        this.second = second;
+        firstCommands = new PlayerCommands(FIRST_PLAYER);
+        secondCommands = new PlayerCommands(SECOND_PLAYER);
+        first.setCommands(firstCommands);
+        second.setCommands(secondCommands);
+        tick = 0;
+    }
+
+    /** plays one tick, returns false when the game is over */
+    public boolean step() {
+        if(tick >= MAX_TIME) {
+            return false;
+        }
+        tick++;
+        spawn();
+
+        final List<Passenger> firstPassengers = new ArrayList<>();
+        final List<Passenger> secondPassengers = new ArrayList<>();
+        for (SimPassenger passenger : passengers) {
+            if(passenger.visible()) {
+                final Passenger view = passenger.view();
+                views[passenger.id] = view;
+                (passenger.type.equals(FIRST_PLAYER) ? firstPassengers : secondPassengers).add(view);
+            }
+        }
+        final List<Elevator> firstElevators = new ArrayList<>();
+        final List<Elevator> secondElevators = new ArrayList<>();
+        for (SimElevator elevator : elevators) {
+            (elevator.type.equals(FIRST_PLAYER) ? firstElevators : secondElevators).add(elevator.view());
+        }
+
+        first.onTick(firstPassengers, firstElevators, secondPassengers, secondElevators);
+        second.onTick(secondPassengers, secondElevators, firstPassengers, firstElevators);
+        // the player applied last wins contested calls
+        if(tieBreak.nextBoolean()) {
+            firstCommands.apply();
+            secondCommands.apply();
+        } else {
+            secondCommands.apply();
+            firstCommands.apply();
+        }
+
+        for (SimElevator elevator : elevators) {
+            elevator.tick();
+        }
+        for (int i = 0; i < passengers.size(); i++) {
+            passengers.get(i).tick();
+        }
+        passengers.removeIf(passenger -> passenger.left);
+        return true;
+    }
+
+    /** the last played tick */
+    public int tick() {
+        return tick;
+    }
+
+    /** {first player score, second player score} */
+    public int[] score() {
+        return score.clone();
+    }
+
+    private void spawn() {
+        if(tick >= SPAWN_TIME || tick % SPAWN_PERIOD != 1) {
+            return;
+        }
+        final int pair = routes.size();
+        final int[] route = new int[VISITS + 1];
+        int floor = 1;
+        for (int i = 0; i < VISITS; i++) {
+            int next;
+            do {
+                next = 2 + random.nextInt(FLOORS - 1);
+            } while (next == floor);
+            route[i] = next;
+            floor = next;
+        }
+        route[VISITS] = 1;
+        routes.add(route);
+        final double weight = 1.01 + random.nextDouble() * 0.14;
+        for (SimPassenger passenger : new SimPassenger[]{new SimPassenger(pair * 2 + 1, FIRST_PLAYER, pair, weight),
+                new SimPassenger(pair * 2 + 2, SECOND_PLAYER, pair, weight)}) {
+            passengers.add(passenger);
+            passengersById[passenger.id] = passenger;
+        }
+    }
+
+    private SimElevator elevator(int id) {
+        return elevators.get(id - 1);
+    }
+
+    private SimPassenger passenger(int id) {
+        final SimPassenger passenger = passengersById[id];
+        return passenger == null || passenger.left ? null : passenger;
+    }
+
+    private static int elevatorX(int id) {
+        final int x = FIRST_ELEVATOR_POSITION + (id - 1) / 2 * ELEVATOR_OFFSET;
+        return id % 2 == 1 ? -x : x;
+    }
+
+    private class SimElevator {
+        final int id;
+        final String type;
+        final List<SimPassenger> inside = new ArrayList<>();
+        double y = 1;
+        int floor = 1;
+        int state = ELEVATOR_FILLING;
+        Integer nextFloor;
+        Integer command;
+        int timeOnFloor = DOORS_TIME;
+        int closing;
+
+        SimElevator(int id, String type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        Elevator view() {
+            final List<Passenger> insideViews = new ArrayList<>(inside.size());
+            for (SimPassenger passenger : inside) {
+                insideViews.add(views[passenger.id]);
+            }
+            return new Elevator(id, y, insideViews, state, 1.0 / ticksPerFloor(), floor, nextFloor, timeOnFloor, type);
+        }
+
+        double ticksPerFloor() {
+            if(nextFloor != null && nextFloor < y) {
+                return TICKS_PER_FLOOR;
+            }
+            double ticksPerFloor = TICKS_PER_FLOOR;
+            for (SimPassenger passenger : inside) {
+                ticksPerFloor *= passenger.weight;
+            }
+            if(inside.size() > 10) {
+                ticksPerFloor *= 1.1;
+            }
+            return ticksPerFloor;
+        }
+
+        void tick() {
+            switch (state) {
+                case ELEVATOR_WAITING:
+                    timeOnFloor++;
+                    if(command != null) {
+                        nextFloor = command;
+                        command = null;
+                        if(nextFloor == floor) {
+                            state = ELEVATOR_OPENING;
+                            timeOnFloor = 0;
+                        } else {
+                            state = ELEVATOR_MOVING;
+                        }
+                    }
+                    break;
+                case ELEVATOR_MOVING: {
+                    final double step = 1.0 / ticksPerFloor();
+                    y = nextFloor > y ? Math.min(nextFloor, y + step) : Math.max(nextFloor, y - step);
+                    floor = nextFloor > y ? (int) Math.floor(y) : (int) Math.ceil(y);
+                    if(y == nextFloor) {
+                        floor = nextFloor;
+                        state = ELEVATOR_OPENING;
+                        timeOnFloor = 0;
+                    }
+                    break;
+                }
+                case ELEVATOR_OPENING:
+                    timeOnFloor++;
+                    if(timeOnFloor >= DOORS_TIME) {
+                        state = ELEVATOR_FILLING;
+                        for (SimPassenger passenger : new ArrayList<>(inside)) {
+                            if(passenger.destFloor == floor) {
+                                inside.remove(passenger);
+                                passenger.exit(this);
+                            }
+                        }
+                    }
+                    break;
+                case ELEVATOR_FILLING:
+                    timeOnFloor++;
+                    if(command != null && timeOnFloor >= DOORS_TIME + TICKS_TO_STAY_OPEN) {
+                        nextFloor = command;
+                        command = null;
+                        state = ELEVATOR_CLOSING;
+                        closing = 0;
+                        for (SimPassenger passenger : passengers) {
+                            if(passenger.state == PASSENGER_MOVING_TO_ELEVATOR && passenger.elevator == id) {
+                                passenger.state = PASSENGER_RETURNING;
+                            }
+                        }
+                    }
+                    break;
+                case ELEVATOR_CLOSING:
+                    timeOnFloor++;
+                    if(++closing >= DOORS_TIME) {
+                        state = ELEVATOR_WAITING;
+                        command = nextFloor; // goes on unless the strategy changes its mind while waiting
+                    }
+                    break;
+            }
+        }
+    }
+
+    private class SimPassenger {
+        final int id;
+        final String type;
+        final int pair;
+        final double weight;
+        int fromFloor = 1;
+        int destFloor;
+        int floor = 1;
+        double x;
+        double startX;
+        int state = PASSENGER_WAITING_FOR_ELEVATOR;
+        int timeToAway = TIME_TO_AWAY;
+        Integer elevator;
+        int visits;
+        int timer; // stairs, exiting or walking
+        boolean walking;
+        boolean left;
+
+        SimPassenger(int id, String type, int pair, double weight) {
+            this.id = id;
+            this.type = type;
+            this.pair = pair;
+            this.weight = weight;
+            this.destFloor = routes.get(pair)[0];
+            this.startX = this.x = type.equals(FIRST_PLAYER) ? -PASSENGER_POSITION : PASSENGER_POSITION;
+        }
+
+        boolean visible() {
+            return !walking;
+        }
+
+        Passenger view() {
+            return new Passenger(id, elevator, fromFloor, destFloor, timeToAway, type, floor, x, (double) floor, state, weight);
+        }
+
+        void tick() {
+            if(walking) {
+                if(--timer <= 0) {
+                    walking = false;
+                    fromFloor = floor;
+                    destFloor = routes.get(pair)[visits];
+                    state = PASSENGER_WAITING_FOR_ELEVATOR;
+                    timeToAway = TIME_TO_AWAY;
+                    x = startX;
+                }
+                return;
+            }
+            switch (state) {
+                case PASSENGER_WAITING_FOR_ELEVATOR:
+                case PASSENGER_RETURNING:
+                case PASSENGER_MOVING_TO_ELEVATOR:
+                    if(--timeToAway <= 0 && state != PASSENGER_MOVING_TO_ELEVATOR) {
+                        state = PASSENGER_MOVING_TO_FLOOR;
+                        elevator = null;
+                        timer = (destFloor > floor ? TICKS_PER_FLOOR_STAIRS_UP : TICKS_PER_FLOOR_STAIRS_DOWN) * Math.abs(destFloor - floor);
+                        break;
+                    }
+                    if(state == PASSENGER_MOVING_TO_ELEVATOR) {
+                        moveToElevator();
+                    } else if(state == PASSENGER_RETURNING) {
+                        x = step(x, startX);
+                        if(x == startX) {
+                            state = PASSENGER_WAITING_FOR_ELEVATOR;
+                            elevator = null;
+                        }
+                    }
+                    break;
+                case PASSENGER_MOVING_TO_FLOOR:
+                    if(--timer <= 0) {
+                        arrive();
+                    }
+                    break;
+                case PASSENGER_EXITING:
+                    if(--timer <= 0) {
+                        arrive();
+                    }
+                    break;
+            }
+        }
+
+        void moveToElevator() {
+            final SimElevator target = elevator(elevator);
+            x = step(x, elevatorX(target.id));
+            if(x != elevatorX(target.id)) {
+                return;
+            }
+            if(target.floor == floor && target.state == ELEVATOR_FILLING && target.inside.size() < MAX_PASSENGERS) {
+                state = PASSENGER_USING_ELEVATOR;
+                target.inside.add(this);
+            } else {
+                state = PASSENGER_RETURNING;
+            }
+        }
+
+        void exit(SimElevator from) {
+            score[from.type.equals(FIRST_PLAYER) ? 0 : 1] += (type.equals(from.type) ? 10 : 20) * Math.abs(destFloor - fromFloor);
+            floor = destFloor;
+            state = PASSENGER_EXITING;
+            elevator = null;
+            timer = TICKS_TO_EXIT;
+        }
+
+        void arrive() {
+            floor = destFloor;
+            visits++;
+            if(destFloor == 1) {
+                left = true;
+                return;
+            }
+            walking = true;
+            timer = WALKING_TIME;
+        }
+
+        private double step(double from, double to) {
+            return from < to ? Math.min(to, from + HORIZONTAL_SPEED) : Math.max(to, from - HORIZONTAL_SPEED);
+        }
+    }
+
+    /** collects one player's decisions during onTick and applies the legal ones afterwards */
+    private class PlayerCommands implements Strategy.Commands {
+        private final String type;
+        private final Map<Integer, Integer> goToFloor = new LinkedHashMap<>();
+        private final Map<Integer, Integer> setElevator = new LinkedHashMap<>();
+
+        PlayerCommands(String type) {
+            this.type = type;
+        }
+
+        @Override
+        public void goToFloor(Elevator elevator, int floor) {
+            if(elevator.getType().equals(type) && floor >= 1 && floor <= FLOORS) {
+                goToFloor.put(elevator.getId(), floor);
+            }
+        }
+
+        @Override
+        public void setElevator(Passenger passenger, Elevator elevator) {
+            if(elevator.getType().equals(type)) {
+                setElevator.put(passenger.getId(), elevator.getId());
+            }
+        }
+
+        void apply() {
+            goToFloor.forEach((id, floor) -> {
+                final SimElevator elevator = elevator(id);
+                if(elevator.state == ELEVATOR_WAITING || elevator.state == ELEVATOR_FILLING) {
+                    elevator.command = floor;
+                }
+            });
+            setElevator.forEach((passengerId, elevatorId) -> {
+                final SimPassenger passenger = passenger(passengerId);
+                final SimElevator elevator = elevator(elevatorId);
+                if(passenger == null || passenger.walking || passenger.floor != elevator.floor || elevator.state != ELEVATOR_FILLING) {
+                    return;
+                }
+                if(passenger.state != PASSENGER_WAITING_FOR_ELEVATOR && passenger.state != PASSENGER_RETURNING &&
+                        passenger.state != PASSENGER_MOVING_TO_ELEVATOR) {
+                    return;
+                }
+                if(!passenger.type.equals(elevator.type) && elevator.timeOnFloor <= DOORS_TIME + TICKS_TO_CALL_ENEMY) {
+                    return;
+                }
+                passenger.elevator = elevatorId;
+                passenger.state = PASSENGER_MOVING_TO_ELEVATOR;
+            });
+            goToFloor.clear();
+            setElevator.clear();
+        }
+    }
+
+    public static void main(String[] args) {
+        final int games = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        long firstTotal = 0;
+        long secondTotal = 0;
+        final long start = System.nanoTime();
+        for (int game = 0; game < games; game++) {
+            final int[] result = new Simulator(seed + game).play(new Strategy(), new Strategy());
+            System.out.println("game " + (seed + game) + ": " + result[0] + " " + result[1]);
+            firstTotal += result[0];
+            secondTotal += result[1];
+        }
+        final long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("average: " + firstTotal / games + " " + secondTotal / games + ", " + ms / games + " ms per game");
+    }
+}
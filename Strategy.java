@@ -4,9 +4,6 @@ import core.API.Elevator;
 import core.API.Passenger;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 public class Strategy extends BaseStrategy {
     private static final int ELEVATOR_WAITING = 0;
@@ -35,428 +32,1897 @@ public class Strategy extends BaseStrategy {
     private static final int ELEVATOR_OFFSET = 80;
     private static final int MAX_TIME = 7200; // not documented?
 
-    private final Random random = new Random(123);
+    private static final int FLOORS = 9;
+    private static final int ELEVATORS = 8; // both players
+    private static final int MAX_PASSENGER_ID = 200; // a pair of passengers every 20 ticks during first 2000 ticks
+    private static final int[] ELEVATOR_X = {-60, 60, -60 - 80, 60 + 80, -60 - 80 - 80, 60 + 80 + 80, -60 - 80 - 80 - 80, 60 + 80 + 80 + 80};
 
-    private String playerType;
-    private int tick = 0;
+    private final Engine engine;
+    private final Game game;
 
-    private List<ExpectedPassenger> expectedPassengers = new ArrayList<>();
-    private Set<Integer> lastPassengers = new LinkedHashSet<>();
-    private Set<Integer> notMovingToFloorPassengers = new LinkedHashSet<>(); // not moving_to_floor
-    private Set<Integer> waitingElevators = new LinkedHashSet<>();
-    private Map<Integer, PassengerRoute> passengerRoutes = new LinkedHashMap<>(); // passengerId -> route
+    public Strategy() {
+        this(Engine.DEFAULT, new Game(123));
+    }
+
+    Strategy(Parameters parameters) {
+        this(new Engine(parameters), new Game(123));
+    }
+
+    /** the engine can be shared by any number of concurrent games, the game must not */
+    Strategy(Engine engine, Game game) {
+        this.engine = engine;
+        this.game = game;
+    }
 
     public void onTick(List<Passenger> myPassengers, List<Elevator> myElevators, List<Passenger> enemyPassengers, List<Elevator> enemyElevators) {
-        tick++;
+        engine.onTick(game, myPassengers, myElevators, enemyPassengers, enemyElevators);
+    }
+
+    /** with the elevators of the last tick (benchmarks) */
+    boolean canCall(Elevator elevator, Passenger passenger) {
+        return engine.canCall(game, elevator, passenger);
+    }
+
+    /** see {@link Profiler#total(int)} (benchmarks) */
+    long phaseNanos(int phase) {
+        return game.profiler.total(phase);
+    }
+
+    int nextFloor(int passengerId) {
+        return game.routes.nextFloor(passengerId);
+    }
+
+    /** evaluates with the state left by the last tick (benchmarks) */
+    double evaluateFloor(Elevator elevator, int floor) {
+        return engine.evaluateFloor(game, elevator, floor);
+    }
+
+    /** replaces the game API as the receiver of decisions (local simulator) */
+    void setCommands(Commands commands) {
+        game.commands = commands;
+    }
 
-        log("tick: " + tick);
+    private static <T> void addAll(List<T> to, List<T> from) {
+        // List.addAll copies through toArray()
+        for (int i = 0; i < from.size(); i++) {
+            to.add(from.get(i));
+        }
+    }
 
-        if(tick == 1) {
-            init(myElevators, enemyElevators);
+    private static <T> void truncate(List<T> list, int size) {
+        while (list.size() > size) {
+            list.remove(list.size() - 1);
         }
+    }
 
-        final List<Passenger> passengers = new ArrayList<>();
-        passengers.addAll(myPassengers);
-        passengers.addAll(enemyPassengers);
+    private static boolean canTake(int expectedTick, int arriveAt, boolean arrivesEarlier, int closerArrivesAt) {
+        return !(arrivesEarlier && expectedTick < arriveAt) && !(closerArrivesAt < expectedTick);
+    }
 
-        final List<Elevator> elevators = new ArrayList<>();
-        elevators.addAll(myElevators);
-        elevators.addAll(enemyElevators);
+    private static int elevatorDistanceFromCenter(int elevatorId) {
+        return FIRST_ELEVATOR_POSITION + (elevatorId - 1) / 2 * ELEVATOR_OFFSET;
+    }
 
-        calcExpectedPassengers(passengers, elevators);
+    private static int passengerValue(Passenger passenger, String playerType) {
+        return (passenger.getType().equals(playerType) ? 10 : 20) * Math.abs(passenger.getDestFloor() - passenger.getFromFloor());
+    }
+
+    private static double expectedPassengerValue(String type, double travel, String playerType) {
+        return (type.equals(playerType) ? 10 : 20) * travel;
+    }
 
-        final Map<Integer, List<Passenger>> passengersByFloor = new HashMap<>();
-        for (Passenger passenger : passengers) {
-            if(passenger.getState() < PASSENGER_MOVING_TO_FLOOR) {
-                passengersByFloor.putIfAbsent(passenger.getFloor(), new ArrayList<>());
-                passengersByFloor.get(passenger.getFloor()).add(passenger);
+    /** everything the strategy can tell the game */
+    interface Commands {
+        Commands API = new Commands() {
+            @Override
+            public void goToFloor(Elevator elevator, int floor) {
+                elevator.goToFloor(floor);
             }
+
+            @Override
+            public void setElevator(Passenger passenger, Elevator elevator) {
+                passenger.setElevator(elevator);
+            }
+        };
+
+        void goToFloor(Elevator elevator, int floor);
+
+        void setElevator(Passenger passenger, Elevator elevator);
+    }
+
+    /**
+     * The decisions. Holds nothing but the parameters, everything a game changes is in {@link Game},
+     * so one engine (and its JIT-compiled code) serves any number of games on any threads.
+     */
+    static final class Engine {
+        static final Engine DEFAULT = new Engine(Parameters.DEFAULT);
+
+        private final Parameters parameters;
+
+        Engine(Parameters parameters) {
+            this.parameters = parameters;
         }
 
-        for (Elevator elevator : myElevators) {
-            final List<Passenger> passengersAtThisFloor = passengersByFloor.getOrDefault(elevator.getFloor(), Collections.emptyList());
-            switch (elevator.getState()) {
-                case ELEVATOR_WAITING: {
-                    chooseNextFloor(elevator, passengersByFloor, elevators);
-                    break;
+        void onTick(Game game, List<Passenger> myPassengers, List<Elevator> myElevators, List<Passenger> enemyPassengers, List<Elevator> enemyElevators) {
+            final int tick = ++game.tick;
+            final Profiler profiler = game.profiler;
+            profiler.tickStart();
+            long phaseStart = System.nanoTime();
+
+            if(game.recorder != null) {
+                game.recorder.frameStart(tick, myPassengers, myElevators, enemyPassengers, enemyElevators);
+            }
+
+            if(tick == 1) {
+                init(game, myElevators, enemyElevators);
+            }
+
+            final List<Passenger> passengers = game.passengers;
+            passengers.clear();
+            addAll(passengers, myPassengers);
+            addAll(passengers, enemyPassengers);
+
+            final List<Elevator> elevators = game.elevators;
+            elevators.clear();
+            addAll(elevators, myElevators);
+            addAll(elevators, enemyElevators);
+
+            final ArrivalTable arrivals = game.arrivals;
+            game.registry.update(elevators, game.playerType);
+            game.kinematics.update(elevators, tick);
+            arrivals.update(elevators, tick, game.kinematics, game.playerType);
+            if(OpponentModel.WEIGHT > 0) {
+                game.opponents.update(elevators, tick, game.kinematics, arrivals, game.playerType);
+            }
+            phaseStart = profiler.phaseEnd(Profiler.UPDATE, phaseStart);
+
+            calcExpectedPassengers(game, passengers, elevators);
+            phaseStart = profiler.phaseEnd(Profiler.EXPECTED_PASSENGERS, phaseStart);
+
+            final List<Passenger>[] passengersByFloor = game.passengersByFloor;
+            for (int floor = 1; floor <= FLOORS; floor++) {
+                passengersByFloor[floor].clear();
+            }
+            for (int i = 0; i < passengers.size(); i++) {
+                final Passenger passenger = passengers.get(i);
+                if(passenger.getState() < PASSENGER_MOVING_TO_FLOOR) {
+                    passengersByFloor[passenger.getFloor()].add(passenger);
                 }
-                case ELEVATOR_FILLING: {
-                    List<Passenger> passengersForElevator = new ArrayList<>(passengersAtThisFloor);
+            }
+            phaseStart = profiler.phaseEnd(Profiler.BY_FLOOR, phaseStart);
+
+            final List<Passenger> passengersForElevator = game.passengersForElevator;
+            final List<ExpectedPassenger> expectedBuffer = game.expectedBuffer;
+            game.dispatch.clear();
+            for (int e = 0; e < myElevators.size(); e++) {
+                final Elevator elevator = myElevators.get(e);
+                final List<Passenger> passengersAtThisFloor = passengersByFloor[elevator.getFloor()];
+                switch (elevator.getState()) {
+                    case ELEVATOR_WAITING: {
+                        // decided together with the other elevators waiting on this tick
+                        if(elevator.getTimeOnFloor() >= DOORS_TIME + TICKS_TO_STAY_OPEN) {
+                            game.dispatch.add(elevator);
+                        }
+                        break;
+                    }
+                    case ELEVATOR_FILLING: {
+                        passengersForElevator.clear();
 
-                    if(elevator.getFloor() == 1 && tick < 2000) {
-                        // start of the game - take only valuable passengers
-                        passengersForElevator = passengersAtThisFloor.stream()
-                                .filter(passenger -> passenger.getDestFloor() >= 5 ||
-                                        ((elevator.getId() == 7 || elevator.getId() == 8) && passenger.getDestFloor() == 4))
-                                .collect(Collectors.toList());
+                        if(elevator.getFloor() == 1 && tick < parameters.openingTicks) {
+                            // start of the game - take only valuable passengers
+                            final int id = elevator.getId();
+                            for (int i = 0; i < passengersAtThisFloor.size(); i++) {
+                                final Passenger passenger = passengersAtThisFloor.get(i);
+                                final int destFloor = passenger.getDestFloor();
+                                final boolean valuable;
+                                if(id == 1 || id == 2) {
+                                    valuable = destFloor >= parameters.openingDestNear;
+                                } else if(id == 3 || id == 4) {
+                                    valuable = destFloor >= parameters.openingDestMiddle;
+                                } else {
+                                    valuable = destFloor >= parameters.openingDestFar || ((id == 7 || id == 8) && destFloor == 4);
+                                }
+                                if(valuable) {
+                                    passengersForElevator.add(passenger);
+                                }
+                            }
 
-                        if(elevator.getId() == 1 || elevator.getId() == 2) {
-                            passengersForElevator = passengersAtThisFloor.stream()
-                                    .filter(passenger -> passenger.getDestFloor() >= 8)
-                                    .collect(Collectors.toList());
+                            if (elevator.getPassengers().size() - arrivals.exiting[elevator.getId()][elevator.getFloor()] >= MAX_PASSENGERS) {
+                                chooseNextFloor(game, elevator);
+                            } else {
+                                assignPassengers(game, elevator, passengersForElevator);
+                            }
+                            break;
                         }
-                        if(elevator.getId() == 3 || elevator.getId() == 4) {
-                            passengersForElevator = passengersAtThisFloor.stream()
-                                    .filter(passenger -> passenger.getDestFloor() >= 7)
-                                    .collect(Collectors.toList());
+
+                        // the opening above is cheap, it doesn't change near the deadline
+                        if(profiler.fallback()) {
+                            cheapFilling(game, elevator, passengersAtThisFloor);
+                            break;
                         }
 
-                        if (elevator.getPassengers().stream().filter(passenger -> !passenger.getDestFloor().equals(elevator.getFloor())).count() >= MAX_PASSENGERS) {
-                            chooseNextFloor(elevator, passengersByFloor, elevators);
+                        addAll(passengersForElevator, passengersAtThisFloor);
+
+                        if (elevator.getPassengers().size() - arrivals.exiting[elevator.getId()][elevator.getFloor()] >= MAX_PASSENGERS) {
+                            chooseNextFloor(game, elevator);
                         } else {
-                            assignPassengers(elevator, passengersForElevator);
+                            // another not full elevator closer to the center collects here
+                            final boolean badAnyElevators = arrivals.fillingDistance[elevator.getFloor()] < elevatorDistanceFromCenter(elevator.getId());
+                            expectedBuffer.clear();
+                            game.expectedPassengers.collect(elevator.getFloor(), Integer.MIN_VALUE, tick + 200, expectedBuffer);
+                            boolean canCollectExpected = expectedBuffer.size() > 0 && !badAnyElevators;
+                            double expectedValue = 0;
+                            for (int i = 0; i < expectedBuffer.size(); i++) {
+                                expectedValue += expectedPassengerValue2(game, expectedBuffer.get(i));
+                            }
+                            final double expectedValueLimit = parameters.expectedValueLimit;
+
+                            double floorValue = 0;
+                            int enteringPassengers = 0;
+                            for (int i = 0; i < passengersAtThisFloor.size(); i++) {
+                                final Passenger passenger = passengersAtThisFloor.get(i);
+                                floorValue += passengerValue(passenger, game.playerType);
+                                if(passenger.getElevator() != null && passenger.getElevator().equals(elevator.getId())) {
+                                    enteringPassengers++;
+                                }
+                            }
+
+                            if (floorValue < parameters.fillingValueLimit && (!canCollectExpected || expectedValue < expectedValueLimit)) {
+                                chooseNextFloor(game, elevator);
+                            } else {
+                                final int exitingPassengers = arrivals.exiting[elevator.getId()][elevator.getFloor()];
+                                final int freePlaces = Math.max(0, MAX_PASSENGERS - (elevator.getPassengers().size() - exitingPassengers) - enteringPassengers);
+                                int count = 0;
+                                for (int i = 0; i < passengersForElevator.size(); i++) {
+                                    final Passenger passenger = passengersForElevator.get(i);
+                                    if(canCall(game, elevator, passenger)) {
+                                        passengersForElevator.set(count++, passenger);
+                                    }
+                                }
+                                truncate(passengersForElevator, count);
+                                sortByValueDescending(passengersForElevator, game.playerType);
+                                truncate(passengersForElevator, freePlaces);
+                                if(enteringPassengers == 0 && passengersForElevator.isEmpty() && (!canCollectExpected || expectedValue < expectedValueLimit)) {
+                                    chooseNextFloor(game, elevator);
+                                } else {
+                                    if(!passengersForElevator.isEmpty()) {
+                                        assignPassengers(game, elevator, passengersForElevator);
+                                    }
+                                }
+                            }
                         }
                         break;
                     }
+                }
+            }
+
+            phaseStart = profiler.phaseEnd(Profiler.FILLING, phaseStart);
+
+            dispatch(game);
+            profiler.phaseEnd(Profiler.DISPATCH, phaseStart);
+            profiler.tickEnd();
+
+            if(game.recorder != null) {
+                game.recorder.frameEnd();
+            }
+            if(tick == MAX_TIME) {
+                game.trace.dump();
+                if(Profiler.ENABLED) {
+                    System.err.println(game.profiler.summary());
+                }
+                if(Kinematics.VALIDATE) {
+                    System.err.println(game.kinematics.validationSummary());
+                }
+                if(game.recorder != null) {
+                    game.recorder.close();
+                }
+            }
+        }
+
+        /** stable insertion sort, passenger lists are short and List.sort allocates */
+        private static void sortByValueDescending(List<Passenger> list, String playerType) {
+            for (int i = 1; i < list.size(); i++) {
+                final Passenger passenger = list.get(i);
+                final int value = passengerValue(passenger, playerType);
+                int j = i - 1;
+                while (j >= 0 && passengerValue(list.get(j), playerType) < value) {
+                    list.set(j + 1, list.get(j));
+                    j--;
+                }
+                list.set(j + 1, passenger);
+            }
+        }
 
-                    if (elevator.getPassengers().stream().filter(passenger -> !passenger.getDestFloor().equals(elevator.getFloor())).count() >= MAX_PASSENGERS) {
-                        chooseNextFloor(elevator, passengersByFloor, elevators);
+        boolean canCall(Game game, Elevator elevator, Passenger passenger) {
+            if(elevator.getId().equals(passenger.getElevator())) {
+                return false; // already called
+            }
+            final ElevatorRegistry registry = game.registry;
+            switch (passenger.getState()) {
+                case PASSENGER_WAITING_FOR_ELEVATOR:
+                    return true;
+                case PASSENGER_MOVING_TO_ELEVATOR: {
+                    if (registry.mine[passenger.getElevator()]) {
+                        return false; // already going to our elevator
                     } else {
-                        final List<Elevator> badAnyElevators = elevators.stream()
-                                .filter(elevator1 -> !elevator1.getId().equals(elevator.getId()) &&
-                                        elevator1.getFloor().equals(elevator.getFloor()) &&
-                                        elevator1.getState() == ELEVATOR_FILLING &&
-                                        elevator1.getPassengers().size() < MAX_PASSENGERS &&
-                                        elevatorDistanceFromCenter(elevator1.getId()) < elevatorDistanceFromCenter(elevator.getId()))
-                                .collect(Collectors.toList());
-                        final List<ExpectedPassenger> expectedPassengers2 = expectedPassengers.stream()
-                                .filter(expected -> expected.floor == elevator.getFloor())
-                                .filter(expected -> expected.tick < tick + 200)
-                                .collect(Collectors.toList());
-                        boolean canCollectExpected = expectedPassengers2.size() > 0 && badAnyElevators.isEmpty();
-                        double expectedValue = expectedPassengers2.stream().mapToDouble(this::expectedPassengerValue2).sum();
-                        final int expectedValueLimit = 150;
-
-                        if (passengersAtThisFloor.stream().mapToDouble(this::passengerValue).sum() < 100 && (!canCollectExpected || expectedValue < expectedValueLimit)) {
-                            chooseNextFloor(elevator, passengersByFloor, elevators);
-                        } else {
-                            final List<Passenger> exitingPassengers = getExitingPassengers(elevator, elevator.getFloor());
-                            final List<Passenger> enteringPassengers = passengersAtThisFloor.stream()
-                                    .filter(passenger -> passenger.getElevator() != null && passenger.getElevator().equals(elevator.getId()))
-                                    .collect(Collectors.toList());
-                            final int freePlaces = Math.max(0, MAX_PASSENGERS - (elevator.getPassengers().size() - exitingPassengers.size()) - enteringPassengers.size());
-                            passengersForElevator = passengersForElevator.stream()
-                                    .filter(passenger -> canCall_incorrect(elevator, passenger, elevators))
-                                    .sorted(Comparator.comparing(passenger -> -passengerValue(passenger)))
-                                    .limit(freePlaces)
-                                    .collect(Collectors.toList());
-                            if(enteringPassengers.isEmpty() && passengersForElevator.isEmpty() && (!canCollectExpected || expectedValue < expectedValueLimit)) {
-                                chooseNextFloor(elevator, passengersByFloor, elevators);
-                            } else {
-                                if(!passengersForElevator.isEmpty()) {
-                                    log("assign e" + elevator.getId() + ": " + passengersForElevator.stream().map(this::passengerToString).collect(Collectors.toList()));
-                                    assignPassengers(elevator, passengersForElevator);
-                                }
-                            }
+                        final int closestEnemyElevator = registry.closestStopped(elevator.getFloor(), ElevatorRegistry.ENEMY, passenger.getX());
+                        final int closestEnemyElevatorX = closestEnemyElevator != 0 ? registry.x[closestEnemyElevator] : Integer.MAX_VALUE;
+                        if ((passenger.getType().equals(game.playerType) || elevator.getTimeOnFloor() > DOORS_TIME + TICKS_TO_CALL_ENEMY) &&
+                                Math.abs(passenger.getX() - registry.x[elevator.getId()]) < Math.abs(passenger.getX() - closestEnemyElevatorX)) {
+                            return true; // can change call
                         }
+                        return false;
                     }
-                    break;
                 }
+                case PASSENGER_RETURNING:
+                    return true;
             }
+            return false;
         }
-    }
 
-    private String passengerToString(Passenger passenger) {
-        return  passenger.getType().substring(0, 1) + passenger.getId() + ">" + passenger.getDestFloor() +
-                (passenger.getElevator() != null ? "e" + passenger.getElevator() : "");
-    }
+        private void calcFirstExpectedPassengers(Game game, String myType, String enemyType) {
+            int count = 0;
+            for(int i = 1; i < 2000; i += 20) {
+                game.expectPassenger(count * 2 + (myType.equals("FIRST_PLAYER") ? 1 : 2), myType, 1, i, "init");
+                game.expectPassenger(count * 2 + (enemyType.equals("FIRST_PLAYER") ? 1 : 2), enemyType, 1, i, "init");
+                game.routes.link(count * 2 + 1, count * 2 + 2);
+                count++;
+            }
+        }
 
-    private boolean canCall_incorrect(Elevator elevator, Passenger passenger, List<Elevator> elevators) {
-        if(elevator.getId().equals(passenger.getElevator())) {
-            return false; // already called
+        void calcExpectedPassengers(Game game, List<Passenger> passengers, List<Elevator> elevators) {
+            game.expectedPassengers.advance(game.tick - 4);
+            game.changes.update(passengers, elevators, game);
         }
-        switch (passenger.getState()) {
-            case PASSENGER_WAITING_FOR_ELEVATOR:
-                return true;
-            case PASSENGER_MOVING_TO_ELEVATOR: {
-                final Elevator elevator2 = elevators.stream().filter(elevator1 -> elevator1.getId().equals(passenger.getElevator())).findFirst().get();
-                if (elevator2.getType().equals(playerType)) {
-                    return false; // already going to our elevator
-                } else {
-                    final int closestEnemyElevatorX = elevators.stream()
-                            .filter(elevator1 -> !elevator1.getType().equals(playerType))
-                            .filter(elevator1 -> elevator1.getState() != ELEVATOR_MOVING && elevator1.getFloor().equals(elevator.getFloor()))
-                            .min(Comparator.comparingInt(elevator1 -> getElevatorX(elevator)))
-                            .map(this::getElevatorX)
-                            .orElse(Integer.MAX_VALUE);
-                    if ((passenger.getType().equals(playerType) || elevator.getTimeOnFloor() > DOORS_TIME + TICKS_TO_CALL_ENEMY) &&
-                            Math.abs(passenger.getX() - getElevatorX(elevator)) < Math.abs(passenger.getX() - closestEnemyElevatorX)) {
-                        return true; // can change call
+
+        private void assignPassengers(Game game, Elevator elevator, List<Passenger> passengers) {
+            for (int i = 0; i < passengers.size(); i++) {
+                assignToElevator(game, elevator, passengers.get(i));
+            }
+        }
+
+        private void assignToElevator(Game game, Elevator elevator, Passenger passenger) {
+            if(Trace.ENABLED) {
+                game.trace.assignment(game.tick, elevator.getId(), passenger.getId(), passenger.getDestFloor(), !passenger.getType().equals(game.playerType), passenger.getElevator());
+            }
+            if(game.recorder != null) {
+                game.recorder.setElevator(passenger, elevator);
+            }
+            game.commands.setElevator(passenger, elevator);
+        }
+
+        private void init(Game game, List<Elevator> myElevators, List<Elevator> enemyElevators) {
+            game.playerType = myElevators.get(0).getType();
+            calcFirstExpectedPassengers(game, myElevators.get(0).getType(), enemyElevators.get(0).getType());
+        }
+
+        /**
+         * FILLING near the tick deadline: calls the most valuable passengers waiting here or leaves,
+         * without the expected passengers and without calling passengers already going to an elevator.
+         */
+        private void cheapFilling(Game game, Elevator elevator, List<Passenger> passengersAtThisFloor) {
+            final int id = elevator.getId();
+            final int inside = elevator.getPassengers().size() - game.arrivals.exiting[id][elevator.getFloor()];
+            if(inside >= MAX_PASSENGERS) {
+                chooseNextFloor(game, elevator);
+                return;
+            }
+            final List<Passenger> passengersForElevator = game.passengersForElevator;
+            passengersForElevator.clear();
+            int enteringPassengers = 0;
+            for (int i = 0; i < passengersAtThisFloor.size(); i++) {
+                final Passenger passenger = passengersAtThisFloor.get(i);
+                final int state = passenger.getState();
+                if(elevator.getId().equals(passenger.getElevator())) {
+                    enteringPassengers++;
+                } else if(state == PASSENGER_WAITING_FOR_ELEVATOR || state == PASSENGER_RETURNING) {
+                    passengersForElevator.add(passenger);
+                }
+            }
+            if(enteringPassengers == 0 && passengersForElevator.isEmpty()) {
+                chooseNextFloor(game, elevator);
+                return;
+            }
+            sortByValueDescending(passengersForElevator, game.playerType);
+            truncate(passengersForElevator, Math.max(0, MAX_PASSENGERS - inside - enteringPassengers));
+            assignPassengers(game, elevator, passengersForElevator);
+        }
+
+        /** closes the doors of a FILLING elevator */
+        private void chooseNextFloor(Game game, Elevator elevator) {
+            if(elevator.getTimeOnFloor() < DOORS_TIME + TICKS_TO_STAY_OPEN) {
+                return;
+            }
+            // it's only possible to change destination while elevator is not moving
+            // after CLOSING state there is one tick of WAITING state, and then - MOVING
+            // so after closing doors we reevaluate targets once again (side effect, but good)
+            // fake destination, real destination will be set in WAITING state, jointly with the other waiting elevators
+            final int fakeFloor = game.random.nextInt(9) + 1;
+            if(Trace.ENABLED) {
+                game.trace.goToFloor(game.tick, elevator.getId(), fakeFloor, Trace.REASON_FAKE_WHILE_FILLING, 0);
+            }
+            goToFloor(game, elevator, fakeFloor);
+        }
+
+        /** sends the elevators collected in game.dispatch to the floors of the best joint assignment */
+        private void dispatch(Game game) {
+            final FleetDispatch dispatch = game.dispatch;
+            if(dispatch.count == 0) {
+                return;
+            }
+            final long start = System.nanoTime();
+            for (int e = 0; e < dispatch.count; e++) {
+                final Elevator elevator = dispatch.elevators[e];
+                if(game.profiler.fallback()) {
+                    cheapFloor(game, elevator, dispatch.values[e], dispatch.pickup[e]);
+                    continue;
+                }
+                for (int floor = 1; floor <= FLOORS; floor++) {
+                    if(floor != elevator.getFloor()) {
+                        dispatch.values[e][floor] = evaluateFloor(game, elevator, floor, dispatch.pickup[e]);
+                    } else {
+                        dispatch.values[e][floor] = FleetDispatch.NOT_ALLOWED;
+                        dispatch.pickup[e][floor] = 0;
                     }
-                    return false;
                 }
+                if(parameters.lookaheadWeight > 0) {
+                    game.planner.plan(this, game, elevator, dispatch.values[e], start + Planner.BUDGET_NANOS * (e + 1) / dispatch.count);
+                }
+            }
+            dispatch.solve();
+            for (int e = 0; e < dispatch.count; e++) {
+                final Elevator elevator = dispatch.elevators[e];
+                final int floor = dispatch.floors[e];
+                if(Trace.ENABLED) {
+                    game.trace.goToFloor(game.tick, elevator.getId(), floor, Trace.REASON_BEST_FLOOR, dispatch.values[e][floor]);
+                }
+                goToFloor(game, elevator, floor);
             }
-            case PASSENGER_RETURNING:
-                return true;
+            dispatch.clear();
         }
-        return false;
-    }
 
-    private int getElevatorX(Elevator elevator) {
-        return Arrays.asList(-60, 60, -60 - 80, 60 + 80, -60 - 80 - 80, 60 + 80 + 80, -60 - 80 - 80 - 80, 60 + 80 + 80 + 80).get(elevator.getId() - 1);
-    }
+        /** the value of passengers going to a floor and waiting there, without timing or competition */
+        private void cheapFloor(Game game, Elevator elevator, double[] values, double[] pickup) {
+            final int id = elevator.getId();
+            for (int floor = 1; floor <= FLOORS; floor++) {
+                if(floor == elevator.getFloor()) {
+                    values[floor] = FleetDispatch.NOT_ALLOWED;
+                    pickup[floor] = 0;
+                    continue;
+                }
+                double waitingValue = 0;
+                final List<Passenger> waiting = game.passengersByFloor[floor];
+                for (int i = 0; i < waiting.size(); i++) {
+                    waitingValue += passengerValue(waiting.get(i), game.playerType);
+                }
+                final double distanceFactor = 1 - Math.abs(floor - elevator.getFloor()) * parameters.distancePenalty;
+                pickup[floor] = waitingValue * distanceFactor;
+                values[floor] = (waitingValue + game.arrivals.exitingValue[id][floor] * parameters.insideWeight) * distanceFactor;
+            }
+        }
+
+        double evaluateFloor(Game game, Elevator elevator, int floor) {
+            return evaluateFloor(game, elevator, floor, null);
+        }
+
+        /** pickup[floor] is set to the part of the value from the passengers outside, if pickup isn't null */
+        double evaluateFloor(Game game, Elevator elevator, int floor, double[] pickup) {
+            final int tick = game.tick;
+            final ArrivalTable arrivals = game.arrivals;
+            final int id = elevator.getId();
+            final int arriveAt = game.kinematics.doorsOpenAt[id][floor];
+            if(arriveAt >= MAX_TIME - 10) {
+                if(pickup != null) {
+                    pickup[floor] = 0;
+                }
+                return 0;
+            }
+
+            // expected passengers are always on the evaluated floor, so there's no travel before the doors close
+            final boolean inTime = arriveAt + Math.max(elevatorDistanceFromCenter(id) / HORIZONTAL_SPEED, TICKS_TO_STAY_OPEN) +
+                    DOORS_TIME + DOORS_TIME < MAX_TIME - 10;
+
+            final Candidates candidates = game.candidates;
+            candidates.count = 0;
+            if(inTime) {
+                collectCandidates(game, id, floor, arriveAt, candidates);
+            }
+            final double[] valueBuffer = candidates.value;
+            final int values = candidates.count;
+
+            final int exitingPassengers = arrivals.exiting[id][floor];
+            final double insideValue = arrivals.exitingValue[id][floor];
+            final int freePlaces = arrivals.freePlaces[floor][id];
+            Arrays.sort(valueBuffer, 0, values); // dest and weight don't follow, they aren't used here
+            double correctedOutsideValue = 0;
+            for (int i = values - 1; i >= Math.max(0, values - freePlaces); i--) {
+                correctedOutsideValue += valueBuffer[i];
+            }
+            final double distanceFactor = 1 - Math.abs(floor - elevator.getFloor()) * parameters.distancePenalty;
+            final double result = (correctedOutsideValue + insideValue * parameters.insideWeight) * distanceFactor;
+            if(pickup != null) {
+                pickup[floor] = correctedOutsideValue * distanceFactor;
+            }
+            if(Trace.ENABLED) {
+                double outsideValue = 0;
+                for (int i = 0; i < values; i++) {
+                    outsideValue += valueBuffer[i];
+                }
+                game.trace.floorEvaluation(tick, id, floor, values, outsideValue, correctedOutsideValue, exitingPassengers, insideValue, result, arriveAt);
+            }
+            return result;
+        }
+
+        /** the passengers waiting at the floor when the doors open and expected by then, that nobody else takes first */
+        void collectCandidates(Game game, int id, int floor, int arriveAt, Candidates to) {
+            // somebody else arrives earlier - he takes everybody who is already waiting;
+            // somebody closer to the center arrives later - he takes everybody who comes after him
+            final int distance = elevatorDistanceFromCenter(id);
+            final int[] arrivingAt = game.arrivals.arriveAt[floor];
+            boolean arrivesEarlier = false;
+            int closerArrivesAt = Integer.MAX_VALUE;
+            for (int id1 = 1; id1 <= ELEVATORS; id1++) {
+                if(id1 == id || arrivingAt[id1] == ArrivalTable.NONE) {
+                    continue;
+                }
+                if(arrivingAt[id1] < arriveAt) {
+                    arrivesEarlier = true;
+                } else if(elevatorDistanceFromCenter(id1) < distance) {
+                    closerArrivesAt = Math.min(closerArrivesAt, arrivingAt[id1]);
+                }
+            }
+
+            final int tick = game.tick;
+            final ArrivalTable arrivals = game.arrivals;
+            final double competitionWeight = OpponentModel.WEIGHT;
+            final int capacity = to.value.length;
+            int count = 0;
+            final List<Passenger> waiting = game.passengersByFloor[floor];
+            final double waitingShare = arrivals.uncontested(floor, arriveAt, tick, competitionWeight);
+            for (int i = 0; i < waiting.size() && count < capacity; i++) {
+                final Passenger passenger = waiting.get(i);
+                if(tick + passenger.getTimeToAway() > arriveAt + 100 && canTake(tick, arriveAt, arrivesEarlier, closerArrivesAt)) {
+                    to.value[count] = expectedPassengerValue2(game, passenger.getId(), passenger.getType(), floor) * waitingShare;
+                    to.dest[count] = passenger.getDestFloor();
+                    to.weight[count++] = passenger.getWeight();
+                }
+            }
+            final List<ExpectedPassenger> expectedBuffer = game.expectedBuffer;
+            expectedBuffer.clear();
+            game.expectedPassengers.collect(floor, arriveAt + 100 - TIME_TO_AWAY + 1, arriveAt + 100, expectedBuffer);
+            for (int i = 0; i < expectedBuffer.size() && count < capacity; i++) {
+                final ExpectedPassenger expected = expectedBuffer.get(i);
+                if(canTake(expected.tick, arriveAt, arrivesEarlier, closerArrivesAt)) {
+                    to.value[count] = expectedPassengerValue2(game, expected) *
+                            arrivals.uncontested(floor, arriveAt, expected.tick, competitionWeight);
+                    to.dest[count] = game.routes.nextFloor(expected.id);
+                    to.weight[count++] = Candidates.AVERAGE_WEIGHT;
+                }
+            }
+            to.count = count;
+        }
+
+        private double expectedPassengerValue2(Game game, ExpectedPassenger expected) {
+            return expectedPassengerValue2(game, expected.id, expected.type, expected.floor);
+        }
+
+        private double expectedPassengerValue2(Game game, int id, String type, int floor) {
+            final PassengerRoutes routes = game.routes;
+            final int destFloor = routes.nextFloor(id);
+            return expectedPassengerValue(type,
+                    destFloor != PassengerRoutes.UNKNOWN ? Math.abs(destFloor - floor) : game.destinations.travel(routes.visited(id), floor),
+                    game.playerType);
+        }
 
-    private void calcFirstExpectedPassengers(String myType, String enemyType) {
-        int count = 0;
-        for(int i = 1; i < 2000; i += 20) {
-            expectPassenger(new ExpectedPassenger(count * 2 + (myType.equals("FIRST_PLAYER") ? 1 : 2), myType, 1, i, "init"));
-            expectPassenger(new ExpectedPassenger(count * 2 + (enemyType.equals("FIRST_PLAYER") ? 1 : 2), enemyType, 1, i, "init"));
-            passengerRoutes.put(count * 2 + 1, new PassengerRoute());
-            passengerRoutes.put(count * 2 + 2, new PassengerRoute());
-            count++;
+        private void goToFloor(Game game, Elevator elevator, int nextFloor) {
+            if(game.recorder != null) {
+                game.recorder.goToFloor(elevator, nextFloor);
+            }
+            game.commands.goToFloor(elevator, nextFloor);
         }
     }
 
-    private void calcExpectedPassengers(List<Passenger> passengers, List<Elevator> elevators) {
-        elevators.forEach(elevator -> {
-            if(waitingElevators.contains(elevator.getId())) {
-                elevator.getPassengers().stream()
-                        .filter(passenger -> passenger.getDestFloor().equals(elevator.getNextFloor()))
-                        .forEach(passenger -> {
-                            passengerRoutes.get(passenger.getId()).visited++;
-                            if(passenger.getDestFloor() != 1) {
-                                ExpectedPassenger expected = new ExpectedPassenger(passenger.getId(), elevator.getType(), elevator.getNextFloor(),
-                                        tick + ticksToFloor(elevator, elevator.getNextFloor()) + DOORS_TIME + TICKS_TO_EXIT + WALKING_TIME + 1,
-                                        "exit");
-                                expectPassenger(expected);
-                            }
-                        });
+    /**
+     * Everything one game changes: what the strategy knows about the passengers and elevators, the per-tick buffers
+     * and its own random stream. Not thread-safe, a game is played by one thread at a time.
+     */
+    static final class Game implements ChangeListener {
+        private final Random random;
+        private final Trace trace = new Trace(1 << 18);
+        private final Profiler profiler = new Profiler();
+        private Commands commands = Commands.API;
+        private final Recorder recorder = Recorder.fromProperty();
+
+        private String playerType;
+        private int tick = 0;
+
+        private final ExpectedTimeline expectedPassengers = new ExpectedTimeline();
+        private final Changes changes = new Changes();
+        private final PassengerRoutes routes = new PassengerRoutes();
+        private final DestinationModel destinations = new DestinationModel();
+
+        // per-tick buffers, cleared and refilled every tick so that the hot path doesn't allocate
+        private final List<Passenger> passengers = new ArrayList<>(MAX_PASSENGER_ID);
+        private final List<Elevator> elevators = new ArrayList<>(ELEVATORS);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final List<Passenger>[] passengersByFloor = new List[FLOORS + 1];
+        private final List<Passenger> passengersForElevator = new ArrayList<>(MAX_PASSENGER_ID);
+        private final List<ExpectedPassenger> expectedBuffer = new ArrayList<>(MAX_PASSENGER_ID);
+        private final ArrivalTable arrivals = new ArrivalTable();
+        private final OpponentModel opponents = new OpponentModel();
+        private final FleetDispatch dispatch = new FleetDispatch();
+        private final Planner planner = new Planner();
+        private final Kinematics kinematics = new Kinematics();
+        private final ElevatorRegistry registry = new ElevatorRegistry();
+        private final Candidates candidates = new Candidates();
+
+        Game(long seed) {
+            random = new Random(seed);
+            for (int floor = 1; floor <= FLOORS; floor++) {
+                passengersByFloor[floor] = new ArrayList<>(MAX_PASSENGER_ID);
             }
-        });
+        }
 
-        passengers.stream()
-                .filter(passenger -> notMovingToFloorPassengers.contains(passenger.getId()) && passenger.getState() == PASSENGER_MOVING_TO_FLOOR)
-                .forEach(passenger -> {
-                    passengerRoutes.get(passenger.getId()).visited++;
+        private void expectPassenger(int id, String type, int floor, int tick, String kind) {
+            expectedPassengers.add(id, type, floor, tick, kind);
+        }
+
+        @Override
+        public void elevatorDeparted(Elevator elevator) {
+            final List<Passenger> inside = elevator.getPassengers();
+            for (int i = 0; i < inside.size(); i++) {
+                final Passenger passenger = inside.get(i);
+                if(passenger.getDestFloor().equals(elevator.getNextFloor())) {
+                    routes.visit(passenger.getId());
                     if(passenger.getDestFloor() != 1) {
-                        int ticksToDest = (passenger.getDestFloor() > passenger.getFromFloor() ? 200 : 100) * Math.abs(passenger.getDestFloor() - passenger.getFromFloor());
-                        expectPassenger(new ExpectedPassenger(passenger.getId(), passenger.getType(), passenger.getDestFloor(), tick + ticksToDest + WALKING_TIME + 1, "stair"));
+                        expectPassenger(passenger.getId(), elevator.getType(), elevator.getNextFloor(),
+                                tick + kinematics.ticksToFloor[elevator.getId()][elevator.getNextFloor()] + DOORS_TIME + TICKS_TO_EXIT + WALKING_TIME + 1,
+                                "exit");
                     }
-                });
-        for (Passenger passenger : passengers) {
-            if(!lastPassengers.contains(passenger.getId())) {
-                // new passenger
-                final Optional<ExpectedPassenger> found = expectedPassengers.stream()
-                        .filter(expected -> expected.tick == tick &&
-                                expected.id == passenger.getId() &&
-                                expected.type.equals(passenger.getType()) && expected.floor == passenger.getFloor())
-                        .findFirst();
-                if(found.isPresent()) {
-                    expectedPassengers.remove(found.get());
-                }
-                passengerRoutes.get(passenger.getId()).destinations.add(passenger.getDestFloor());
-            }
-        }
-        expectedPassengers = expectedPassengers.stream().filter(expectedPassenger -> expectedPassenger.tick > tick - 5).collect(Collectors.toList());
-        lastPassengers = passengers.stream().map(Passenger::getId).collect(Collectors.toSet());
-        notMovingToFloorPassengers = passengers.stream()
-                .filter(passenger -> passenger.getState() != PASSENGER_MOVING_TO_FLOOR)
-                .map(Passenger::getId)
-                .collect(Collectors.toSet());
-        waitingElevators = elevators.stream()
-                .filter(elevator -> elevator.getState() == ELEVATOR_WAITING)
-                .map(Elevator::getId)
-                .collect(Collectors.toSet());
-    }
-
-    private Integer nextFloor(Integer passengerId) {
-        PassengerRoute route = passengerRoutes.get(passengerId);
-        if(route.visited == 5) {
-            return 1;
-        }
-        PassengerRoute route2 = passengerRoutes.get(passengerId % 2 == 1 ? passengerId + 1 : passengerId - 1);
-        List<Integer> path = route.destinations.size() > route2.destinations.size() ? route.destinations : route2.destinations;
-        return route.visited < path.size() ? path.get(route.visited) : null;
-    }
-
-    private void expectPassenger(ExpectedPassenger expectedPassenger) {
-        expectedPassengers.add(expectedPassenger);
-    }
-
-    private void assignPassengers(Elevator elevator, List<Passenger> passengers) {
-        for (Passenger passenger : passengers) {
-            assignToElevator(elevator, passenger);
-        }
-    }
-
-    private void assignToElevator(Elevator elevator, Passenger passenger) {
-        passenger.setElevator(elevator);
-    }
-
-    private void init(List<Elevator> myElevators, List<Elevator> enemyElevators) {
-        playerType = myElevators.get(0).getType();
-        calcFirstExpectedPassengers(myElevators.get(0).getType(), enemyElevators.get(0).getType());
-    }
-
-    private void chooseNextFloor(Elevator elevator, Map<Integer, List<Passenger>> passengersByFloor, List<Elevator> elevators) {
-        if(elevator.getTimeOnFloor() < DOORS_TIME + TICKS_TO_STAY_OPEN) {
-            return;
-        }
-        // it's only possible to change destination while elevator is not moving
-        // after CLOSING state there is one tick of WAITING state, and then - MOVING
-        // so after closing doors we reevaluate targets once again (side effect, but good)
-        if(elevator.getState() == ELEVATOR_FILLING) {
-            // fake destination, real destination will be set in WAITING state
-            goToFloor(elevator, random.nextInt(9) + 1);
-            return;
-        }
-        Integer bestFloor = IntStream.rangeClosed(1, 9)
-                .filter(floor -> floor != elevator.getFloor())
-                .boxed()
-                .max(Comparator.comparingDouble(floor -> evaluateFloor(elevator, floor, passengersByFloor, elevators, tick)))
-                .get();
-        goToFloor(elevator, bestFloor);
-    }
-
-    private double evaluateFloor(Elevator elevator, int floor, Map<Integer, List<Passenger>> passengersByFloor, List<Elevator> elevators, int tick) {
-        final int waitOnFloor = Math.max(0, (TICKS_TO_STAY_OPEN - elevator.getTimeOnFloor()));
-        int arriveAt = tick + waitOnFloor + (elevator.getState() == ELEVATOR_FILLING ? DOORS_TIME : 0) + ticksToFloor(elevator, floor) + DOORS_TIME;
-        if(arriveAt >= MAX_TIME - 10) {
-            return 0;
-        }
-
-        final List<ArrivingElevator> arrivingElevators = elevators.stream()
-                .filter(elevator1 -> !elevator1.getId().equals(elevator.getId()))
-                .filter(elevator1 -> (elevator1.getFloor() == floor &&
-                        (elevator1.getState() == ELEVATOR_OPENING || elevator1.getState() == ELEVATOR_FILLING)) ||
-                        elevator1.getState() == ELEVATOR_MOVING && elevator1.getNextFloor() == floor)
-                .map(elevator1 -> new ArrivingElevator(elevator1,
-                        elevator1.getState() == ELEVATOR_MOVING ? tick + ticksToFloor(elevator1, floor) + DOORS_TIME :
-                                tick - elevator1.getTimeOnFloor() + DOORS_TIME,
-                        MAX_PASSENGERS - (int) elevator1.getPassengers().stream().filter(passenger -> passenger.getDestFloor() == floor).count()))
-                .filter(arrivingElevator -> arrivingElevator.arriveAt < MAX_TIME)
-                .collect(Collectors.toList());
-
-        final List<Passenger> exitingPassengers = getExitingPassengers(elevator, floor);
-        final List<ExpectedPassenger> passengers =
-                Stream.concat(
-                        passengersByFloor.getOrDefault(floor, Collections.emptyList()).stream()
-                                .filter(passenger -> tick + passenger.getTimeToAway() > arriveAt + 100)
-                                .map(passenger -> new ExpectedPassenger(passenger.getId(), passenger.getType(), floor, tick, " ")),
-                        expectedPassengers.stream()
-                                .filter(expected -> expected.floor == floor && expected.tick < arriveAt + 100 && expected.tick + TIME_TO_AWAY > arriveAt + 100))
-                        .filter(expected -> arriveAt + Math.max(elevatorDistanceFromCenter(elevator.getId()) / HORIZONTAL_SPEED, TICKS_TO_STAY_OPEN) +
-                                DOORS_TIME + Math.abs(expected.floor - floor) * TICKS_PER_FLOOR * 1.2 /* 1.2 - eval weight*/ + DOORS_TIME < MAX_TIME - 10)
-                        .filter(expected -> arrivingElevators.stream()
-                                    .filter(arrivingElevator -> arrivingElevator.arriveAt < arriveAt && expected.tick < arriveAt)
-                                .count() == 0)
-                        .filter(expected -> arrivingElevators.stream()
-                                    .filter(arrivingElevator -> arrivingElevator.arriveAt >= arriveAt && arrivingElevator.arriveAt < expected.tick &&
-                                            elevatorDistanceFromCenter(arrivingElevator.elevator.getId()) < elevatorDistanceFromCenter(elevator.getId()))
-                                .count() == 0)
-                        .collect(Collectors.toList());
-        final double outsideValue = passengers.stream()
-                .mapToDouble(this::expectedPassengerValue2)
-                .sum();
-
-        final int freePlaces = MAX_PASSENGERS - (elevator.getPassengers().size() - exitingPassengers.size());
-        final double correctedOutsideValue = passengers.stream()
-                .map(this::expectedPassengerValue2)
-                .sorted(Comparator.reverseOrder())
-                .mapToDouble(Double::doubleValue)
-                .limit(freePlaces)
-                .sum();
-        final double insideValue = exitingPassengers.stream().mapToDouble(this::passengerValue).sum();
-        final double result = (correctedOutsideValue + insideValue * 2) * (1 - Math.abs(floor - elevator.getFloor()) * 0.07);
-        log("evFl e" + elevator.getId() + ">" + floor +
-                " o" + passengers.size() + "!" + (int) outsideValue + "!" + (int) correctedOutsideValue +
-                " i" + exitingPassengers.size() + "!" + (int) insideValue +
-                " r" + (int) result +
-                " ar" + arriveAt);
-        return result;
-    }
-
-    private int elevatorDistanceFromCenter(int elevatorId) {
-        return FIRST_ELEVATOR_POSITION + (elevatorId - 1) / 2 * ELEVATOR_OFFSET;
+                }
+            }
+        }
+
+        @Override
+        public void passengerStartedStairs(Passenger passenger) {
+            routes.visit(passenger.getId());
+            if(passenger.getDestFloor() != 1) {
+                int ticksToDest = (passenger.getDestFloor() > passenger.getFromFloor() ? 200 : 100) * Math.abs(passenger.getDestFloor() - passenger.getFromFloor());
+                expectPassenger(passenger.getId(), passenger.getType(), passenger.getDestFloor(), tick + ticksToDest + WALKING_TIME + 1, "stair");
+            }
+        }
+
+        @Override
+        public void passengerAppeared(Passenger passenger) {
+            expectedPassengers.remove(passenger.getId(), passenger.getType(), passenger.getFloor(), tick);
+            destinations.add(routes.known(passenger.getId()), passenger.getFromFloor(), passenger.getDestFloor());
+            routes.add(passenger.getId(), passenger.getDestFloor());
+        }
     }
 
-    private double expectedPassengerValue2(ExpectedPassenger expected) {
-        final Integer destFloor = nextFloor(expected.id);
-        return expectedPassengerValue(expected,
-                destFloor != null ?
-                        Math.abs(destFloor - expected.floor) :
-                        firstFloorProbability(expected.id) * (expected.floor - 1) + (1 - firstFloorProbability(expected.id)) * averageTravel(expected.floor));
+    private static class ExpectedPassenger {
+        int id;
+        String type;
+        int floor;
+        int tick;
+        String kind;
+
+        ExpectedPassenger set(int id, String type, int floor, int tick, String kind) {
+            this.id = id;
+            this.type = type;
+            this.floor = floor;
+            this.tick = tick;
+            this.kind = kind;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "id=" + id + ", t=" + tick + ", f=" + floor + ", t=" + type.substring(0, 1) + ", k=" + kind.substring(0, 1);
+        }
     }
 
-    private int ticksToFloor(Elevator elevator, int floor) {
-        if(elevator.getFloor() > floor) {
-            return (int) Math.ceil(TICKS_PER_FLOOR * (elevator.getY() - floor));
+    /**
+     * Expected passengers indexed by floor and tick: a ring of per-tick slots for every floor.
+     * Slots older than the window are dropped on rotation, expectations beyond the window wait in overflow.
+     * Entries are preallocated and chained by index (per slot, overflow and free), so a game doesn't allocate.
+     */
+    private static class ExpectedTimeline {
+        private static final int SLOTS = 4096; // power of two, covers the longest stairs/elevator trip
+        private static final int MASK = SLOTS - 1;
+        private static final int NIL = -1;
+
+        private ExpectedPassenger[] entries = new ExpectedPassenger[0];
+        private int[] next = new int[0]; // the next entry of the same chain
+        private final int[][] heads = new int[FLOORS + 1][SLOTS];
+        private final int[][] tails = new int[FLOORS + 1][SLOTS];
+        private final long[][] occupied = new long[FLOORS + 1][SLOTS / 64]; // non-empty slots per floor
+        private int overflowHead = NIL;
+        private int overflowTail = NIL;
+        private int free = NIL;
+        private int oldestTick = 0;
+
+        ExpectedTimeline() {
+            for (int floor = 0; floor <= FLOORS; floor++) {
+                Arrays.fill(heads[floor], NIL);
+                Arrays.fill(tails[floor], NIL);
+            }
+            grow(4 * MAX_PASSENGER_ID);
+        }
+
+        /** drops everything expected before oldestTick */
+        void advance(int oldestTick) {
+            if(oldestTick <= this.oldestTick) {
+                return;
+            }
+            final int end = Math.min(oldestTick, this.oldestTick + SLOTS);
+            for (int t = this.oldestTick; t < end; t++) {
+                for (int floor = 1; floor <= FLOORS; floor++) {
+                    clearSlot(floor, t & MASK);
+                }
+            }
+            this.oldestTick = oldestTick;
+            if(overflowHead != NIL) {
+                int i = overflowHead;
+                overflowHead = NIL;
+                overflowTail = NIL;
+                while (i != NIL) {
+                    final int following = next[i];
+                    final int tick = entries[i].tick;
+                    if(tick < oldestTick) {
+                        release(i);
+                    } else if(tick < oldestTick + SLOTS) {
+                        addToSlot(i);
+                    } else {
+                        addToOverflow(i);
+                    }
+                    i = following;
+                }
+            }
+        }
+
+        void add(int id, String type, int floor, int tick, String kind) {
+            if(tick < oldestTick) {
+                return;
+            }
+            if(free == NIL) {
+                grow(2 * entries.length); // never in a normal game
+            }
+            final int i = free;
+            free = next[i];
+            entries[i].set(id, type, floor, tick, kind);
+            if(tick >= oldestTick + SLOTS) {
+                addToOverflow(i);
+                return;
+            }
+            addToSlot(i);
+        }
+
+        void remove(int id, String type, int floor, int tick) {
+            if(tick < oldestTick || tick >= oldestTick + SLOTS) {
+                return;
+            }
+            final int slot = tick & MASK;
+            int previous = NIL;
+            for (int i = heads[floor][slot]; i != NIL; previous = i, i = next[i]) {
+                final ExpectedPassenger expected = entries[i];
+                if(expected.id == id && expected.tick == tick && expected.type.equals(type)) {
+                    if(previous == NIL) {
+                        heads[floor][slot] = next[i];
+                    } else {
+                        next[previous] = next[i];
+                    }
+                    if(tails[floor][slot] == i) {
+                        tails[floor][slot] = previous;
+                    }
+                    if(heads[floor][slot] == NIL) {
+                        occupied[floor][slot >>> 6] &= ~(1L << slot);
+                    }
+                    release(i);
+                    return;
+                }
+            }
+        }
+
+        /** adds to out everything expected at floor with tick in [fromTick, toTick) */
+        void collect(int floor, int fromTick, int toTick, List<ExpectedPassenger> out) {
+            final int from = Math.max(fromTick, oldestTick);
+            final int to = Math.min(toTick, oldestTick + SLOTS);
+            if(from < to) {
+                final long[] bits = occupied[floor];
+                int t = from;
+                while (t < to) {
+                    final int slot = t & MASK;
+                    final long word = bits[slot >>> 6] >>> (slot & 63);
+                    if(word == 0) {
+                        t += 64 - (slot & 63);
+                        continue;
+                    }
+                    t += Long.numberOfTrailingZeros(word);
+                    if(t >= to) {
+                        break;
+                    }
+                    for (int i = heads[floor][t & MASK]; i != NIL; i = next[i]) {
+                        out.add(entries[i]);
+                    }
+                    t++;
+                }
+            }
+            if(toTick > oldestTick + SLOTS) {
+                for (int i = overflowHead; i != NIL; i = next[i]) {
+                    final ExpectedPassenger expected = entries[i];
+                    if(expected.floor == floor && expected.tick >= fromTick && expected.tick < toTick) {
+                        out.add(expected);
+                    }
+                }
+            }
+        }
+
+        private void addToSlot(int i) {
+            final ExpectedPassenger expected = entries[i];
+            final int floor = expected.floor;
+            final int slot = expected.tick & MASK;
+            next[i] = NIL;
+            if(heads[floor][slot] == NIL) {
+                heads[floor][slot] = i;
+            } else {
+                next[tails[floor][slot]] = i;
+            }
+            tails[floor][slot] = i;
+            occupied[floor][slot >>> 6] |= 1L << slot;
+        }
+
+        private void addToOverflow(int i) {
+            next[i] = NIL;
+            if(overflowHead == NIL) {
+                overflowHead = i;
+            } else {
+                next[overflowTail] = i;
+            }
+            overflowTail = i;
         }
-        double ticksPerFloor = TICKS_PER_FLOOR;
-        for (Passenger passenger : elevator.getPassengers()) {
-            ticksPerFloor *= passenger.getWeight();
+
+        private void clearSlot(int floor, int slot) {
+            int i = heads[floor][slot];
+            while (i != NIL) {
+                final int following = next[i];
+                release(i);
+                i = following;
+            }
+            heads[floor][slot] = NIL;
+            tails[floor][slot] = NIL;
+            occupied[floor][slot >>> 6] &= ~(1L << slot);
         }
-        if(elevator.getPassengers().size() > 10) {
-            ticksPerFloor *= 1.1;
+
+        private void release(int i) {
+            next[i] = free;
+            free = i;
+        }
+
+        private void grow(int capacity) {
+            final int old = entries.length;
+            entries = Arrays.copyOf(entries, capacity);
+            next = Arrays.copyOf(next, capacity);
+            for (int i = capacity - 1; i >= old; i--) {
+                entries[i] = new ExpectedPassenger();
+                release(i);
+            }
         }
-        return (int) (ticksPerFloor * (floor - elevator.getY()));
     }
 
-    private List<Passenger> getExitingPassengers(Elevator elevator, int floor) {
-        return elevator.getPassengers().stream()
-                    .filter(passenger -> passenger.getDestFloor().equals(floor))
-                    .collect(Collectors.toList());
+    /**
+     * Elevators of the current tick by id, and the elevators standing on every floor (not MOVING) by side.
+     */
+    private static class ElevatorRegistry {
+        static final int MINE = 0;
+        static final int ENEMY = 1;
+
+        final int[] x = new int[ELEVATORS + 1];
+        final boolean[] mine = new boolean[ELEVATORS + 1];
+        final int[][] stopped = new int[FLOORS + 1][2]; // [floor][side] bits by elevator id
+
+        ElevatorRegistry() {
+            for (int id = 1; id <= ELEVATORS; id++) {
+                x[id] = ELEVATOR_X[id - 1];
+            }
+        }
+
+        void update(List<Elevator> elevators, String playerType) {
+            for (int floor = 1; floor <= FLOORS; floor++) {
+                stopped[floor][MINE] = 0;
+                stopped[floor][ENEMY] = 0;
+            }
+            for (int e = 0; e < elevators.size(); e++) {
+                final Elevator elevator = elevators.get(e);
+                final int id = elevator.getId();
+                mine[id] = elevator.getType().equals(playerType);
+                if(elevator.getState() != ELEVATOR_MOVING) {
+                    stopped[elevator.getFloor()][mine[id] ? MINE : ENEMY] |= 1 << id;
+                }
+            }
+        }
+
+        /** the standing elevator of the side closest to x, 0 if there is none */
+        int closestStopped(int floor, int side, double x) {
+            int closest = 0;
+            double closestDistance = Double.MAX_VALUE;
+            for (int bits = stopped[floor][side]; bits != 0; bits &= bits - 1) {
+                final int id = Integer.numberOfTrailingZeros(bits);
+                final double distance = Math.abs(x - this.x[id]);
+                if(distance < closestDistance) {
+                    closest = id;
+                    closestDistance = distance;
+                }
+            }
+            return closest;
+        }
     }
 
-    private void goToFloor(Elevator elevator, int nextFloor) {
-        elevator.goToFloor(nextFloor);
+    /**
+     * Assigns the elevators deciding on the same tick to the floors with the largest total value.
+     * Elevators may share a floor, each delivers its own passengers there, but the crowd waiting there is taken once:
+     * of the pickup values on a shared floor only the largest counts, so that two of them don't chase the same crowd.
+     * Branch and bound from the greedy assignment, after BUDGET_NANOS the best assignment found so far is used.
+     * Without the planner's time budget (-Dstrategy.planBudgetNanos=0) the search has no limit either, so games are reproducible.
+     */
+    private static class FleetDispatch {
+        static final double NOT_ALLOWED = Double.NEGATIVE_INFINITY;
+        private static final long BUDGET_NANOS = Planner.BUDGET_NANOS > 0 ? 50_000 : 0; // 0 - no time limit
+        private static final int MAX_ELEVATORS = ELEVATORS / 2;
+
+        final Elevator[] elevators = new Elevator[MAX_ELEVATORS];
+        final double[][] values = new double[MAX_ELEVATORS][FLOORS + 1]; // [elevator][floor]
+        final double[][] pickup = new double[MAX_ELEVATORS][FLOORS + 1]; // [elevator][floor] the part of values from the waiting passengers
+        final int[] floors = new int[MAX_ELEVATORS]; // the solution
+        int count;
+
+        private final int[][] order = new int[MAX_ELEVATORS][FLOORS]; // floors by value, the best first
+        private final double[] bound = new double[MAX_ELEVATORS + 1]; // the sum of the best values from the elevator on
+        private final int[] chosen = new int[MAX_ELEVATORS];
+        private final double[] taken = new double[FLOORS + 1]; // the largest pickup value on the floor so far
+        private double bestValue;
+        private long deadline;
+        private int nodes;
+        private boolean timedOut;
+
+        void clear() {
+            count = 0;
+        }
+
+        void add(Elevator elevator) {
+            elevators[count++] = elevator;
+        }
+
+        void solve() {
+            for (int e = 0; e < count; e++) {
+                sortFloors(e);
+            }
+            bound[count] = 0;
+            for (int e = count - 1; e >= 0; e--) {
+                bound[e] = bound[e + 1] + values[e][order[e][0]];
+            }
+            if(count == 1) {
+                floors[0] = order[0][0];
+                return;
+            }
+
+            // greedy: every elevator takes the best floor after those taken before it
+            Arrays.fill(taken, 0);
+            bestValue = 0;
+            for (int e = 0; e < count; e++) {
+                int best = order[e][0];
+                for (int i = 1; i < FLOORS; i++) {
+                    final int floor = order[e][i];
+                    if(values[e][floor] != NOT_ALLOWED && gain(e, floor) > gain(e, best)) {
+                        best = floor;
+                    }
+                }
+                floors[e] = best;
+                bestValue += gain(e, best);
+                taken[best] = Math.max(taken[best], pickup[e][best]);
+            }
+
+            Arrays.fill(taken, 0);
+            deadline = System.nanoTime() + BUDGET_NANOS;
+            nodes = 0;
+            timedOut = false;
+            search(0, 0);
+        }
+
+        private void search(int e, double value) {
+            if(e == count) {
+                if(value > bestValue) {
+                    bestValue = value;
+                    System.arraycopy(chosen, 0, floors, 0, count);
+                }
+                return;
+            }
+            if(timedOut || value + bound[e] <= bestValue) {
+                return;
+            }
+            if(BUDGET_NANOS > 0 && (++nodes & 63) == 0 && System.nanoTime() > deadline) {
+                timedOut = true;
+                return;
+            }
+            for (int i = 0; i < FLOORS; i++) {
+                final int floor = order[e][i];
+                if(values[e][floor] != NOT_ALLOWED) {
+                    final double before = taken[floor];
+                    final double gain = gain(e, floor);
+                    taken[floor] = Math.max(before, pickup[e][floor]);
+                    chosen[e] = floor;
+                    search(e + 1, value + gain);
+                    taken[floor] = before;
+                }
+            }
+        }
+
+        /** the value of the floor to the elevator after the pickup value already taken there */
+        private double gain(int e, int floor) {
+            return values[e][floor] - Math.min(pickup[e][floor], taken[floor]);
+        }
+
+        /** stable, so equal values keep the lower floor first like a plain max does */
+        private void sortFloors(int e) {
+            final int[] floors = order[e];
+            final double[] value = values[e];
+            for (int i = 0; i < FLOORS; i++) {
+                final int floor = i + 1;
+                int j = i - 1;
+                while (j >= 0 && value[floors[j]] < value[floor]) {
+                    floors[j + 1] = floors[j];
+                    j--;
+                }
+                floors[j + 1] = floor;
+            }
+        }
     }
 
-    private int passengerValue(Passenger passenger) {
-        return (passenger.getType().equals(playerType) ? 10 : 20) * Math.abs(passenger.getDestFloor() - passenger.getFromFloor());
+    /** passengers an elevator can take at a stop, see {@link Engine#collectCandidates} */
+    private static class Candidates {
+        static final double AVERAGE_WEIGHT = 1.08; // of the expected passengers, their weight isn't known yet
+
+        final double[] value = new double[2 * MAX_PASSENGER_ID];
+        final int[] dest = new int[2 * MAX_PASSENGER_ID]; // PassengerRoutes.UNKNOWN if not known yet
+        final double[] weight = new double[2 * MAX_PASSENGER_ID];
+        int count;
+
+        void swap(int a, int b) {
+            final double value = this.value[a];
+            this.value[a] = this.value[b];
+            this.value[b] = value;
+            final int dest = this.dest[a];
+            this.dest[a] = this.dest[b];
+            this.dest[b] = dest;
+            final double weight = this.weight[a];
+            this.weight[a] = this.weight[b];
+            this.weight[b] = weight;
+        }
     }
 
-    private double expectedPassengerValue(ExpectedPassenger passenger, double travel) {
-        return (passenger.type.equals(playerType) ? 10 : 20) * travel;
+    /**
+     * Looks 2-4 stops ahead. A plan is a sequence of different floors, at every stop the elevator delivers the passengers
+     * going there and picks the most valuable ones it can take from those waiting and expected by then,
+     * their destinations make later stops valuable. The first stop is valued by evaluateFloor, later ones the same way
+     * from the state the plan leaves, with the weight lookaheadWeight per stop.
+     * Beam search deepened one stop at a time until the deadline, the deepest finished level counts:
+     * it raises the value of every first floor by the best continuation found for it.
+     */
+    private static class Planner {
+        // per tick, shared by the deciding elevators; 0 - no time limit, plans don't depend on the speed of the machine
+        static final long BUDGET_NANOS = Long.getLong("strategy.planBudgetNanos", 200_000);
+        private static final int MAX_STOPS = 4;
+        private static final int BEAM = 6;
+        private static final int NODES = BEAM * FLOORS;
+
+        // two levels of nodes, struct of arrays
+        private final Level[] levels = {new Level(), new Level()};
+        private final double[] firstValue = new double[FLOORS + 1];
+        private final double[] continuation = new double[FLOORS + 1];
+        private final double[] levelContinuation = new double[FLOORS + 1];
+
+        // the passengers a stop can take
+        private final Candidates candidates = new Candidates();
+
+        private static class Level {
+            final int[] floor = new int[NODES];
+            final int[] first = new int[NODES];
+            final int[] doorsOpenAt = new int[NODES];
+            final int[] free = new int[NODES];
+            final int[] load = new int[NODES];
+            final double[] weight = new double[NODES]; // product of the weights inside
+            final int[] visited = new int[NODES]; // floor bits
+            final double[] score = new double[NODES];
+            final double[] inside = new double[NODES * (FLOORS + 1)]; // [node * (FLOORS + 1) + floor] value going there
+            final int[] insideCount = new int[NODES * (FLOORS + 1)];
+            final double[] insideWeight = new double[NODES * (FLOORS + 1)]; // product of the weights going there
+            // boarded here with destinations not known yet, they are assumed to get off at the next stop
+            final int[] unknown = new int[NODES];
+            final double[] unknownWeight = new double[NODES];
+            int size;
+        }
+
+        /** adds the best continuation to every first floor value, values[floor] are evaluateFloor of the first stop */
+        void plan(Engine engine, Game game, Elevator elevator, double[] values, long deadline) {
+            final int id = elevator.getId();
+            final ArrivalTable arrivals = game.arrivals;
+            // the weight inside now, from the travel time up that Kinematics computed for it
+            final double weightInside = game.kinematics.ticksPerFloorUp[id] / TICKS_PER_FLOOR / (elevator.getPassengers().size() > 10 ? 1.1 : 1);
+            Level level = levels[1]; // stops % 2 for the next ones
+            level.size = 0;
+            for (int floor = 1; floor <= FLOORS; floor++) {
+                firstValue[floor] = values[floor];
+                continuation[floor] = 0;
+                if(values[floor] == FleetDispatch.NOT_ALLOWED) {
+                    continue;
+                }
+                final int doorsOpenAt = game.kinematics.doorsOpenAt[id][floor];
+                if(doorsOpenAt >= MAX_TIME - 10) {
+                    continue;
+                }
+                final int node = level.size++;
+                level.floor[node] = floor;
+                level.first[node] = floor;
+                level.doorsOpenAt[node] = doorsOpenAt;
+                level.score[node] = values[floor];
+                level.visited[node] = 1 << elevator.getFloor() | 1 << floor;
+                final int base = node * (FLOORS + 1);
+                int load = 0;
+                for (int f = 1; f <= FLOORS; f++) {
+                    level.inside[base + f] = arrivals.exitingValue[id][f];
+                    level.insideCount[base + f] = arrivals.exiting[id][f];
+                    level.insideWeight[base + f] = arrivals.exitingWeight[id][f];
+                    load += arrivals.exiting[id][f];
+                }
+                level.load[node] = load - level.insideCount[base + floor];
+                level.weight[node] = weightInside / level.insideWeight[base + floor];
+                level.inside[base + floor] = 0;
+                level.insideCount[base + floor] = 0;
+                level.insideWeight[base + floor] = 1;
+                level.free[node] = arrivals.freePlaces[floor][id];
+                level.unknown[node] = 0;
+                level.unknownWeight[node] = 1;
+                engine.collectCandidates(game, id, floor, doorsOpenAt, candidates);
+                board(level, node, level.free[node]);
+            }
+            keepBest(level);
+
+            for (int stops = 2; stops <= MAX_STOPS && level.size > 0; stops++) {
+                final Level next = levels[stops % 2];
+                next.size = 0;
+                final double weight = Math.pow(engine.parameters.lookaheadWeight, stops - 1);
+                for (int node = 0; node < level.size; node++) {
+                    for (int floor = 1; floor <= FLOORS; floor++) {
+                        if((level.visited[node] & 1 << floor) == 0) {
+                            expand(engine, game, id, level, node, floor, weight, next);
+                        }
+                    }
+                    if(BUDGET_NANOS > 0 && System.nanoTime() > deadline) {
+                        apply(values);
+                        return;
+                    }
+                }
+                keepBest(next);
+                Arrays.fill(levelContinuation, 0);
+                for (int node = 0; node < next.size; node++) {
+                    final int first = next.first[node];
+                    levelContinuation[first] = Math.max(levelContinuation[first], next.score[node] - firstValue[first]);
+                }
+                for (int floor = 1; floor <= FLOORS; floor++) {
+                    continuation[floor] = Math.max(continuation[floor], levelContinuation[floor]);
+                }
+                level = next;
+            }
+            apply(values);
+        }
+
+        private void apply(double[] values) {
+            for (int floor = 1; floor <= FLOORS; floor++) {
+                if(values[floor] != FleetDispatch.NOT_ALLOWED) {
+                    values[floor] = firstValue[floor] + continuation[floor];
+                }
+            }
+        }
+
+        private void expand(Engine engine, Game game, int id, Level level, int node, int floor, double weight, Level next) {
+            final int from = level.floor[node];
+            final int load = level.load[node];
+            final double ticksPerFloorUp = TICKS_PER_FLOOR * level.weight[node] * (load > 10 ? 1.1 : 1); // as in Kinematics
+            final int travel = floor > from ?
+                    (int) Math.ceil(ticksPerFloorUp * (floor - from)) :
+                    TICKS_PER_FLOOR * (from - floor);
+            final int departure = level.doorsOpenAt[node] + Math.max(elevatorDistanceFromCenter(id) / HORIZONTAL_SPEED, TICKS_TO_STAY_OPEN) + DOORS_TIME + 1;
+            final int doorsOpenAt = departure + travel + DOORS_TIME;
+            if(doorsOpenAt >= MAX_TIME - 10) {
+                return;
+            }
+            final int child = next.size++;
+            final int base = node * (FLOORS + 1);
+            final int childBase = child * (FLOORS + 1);
+            System.arraycopy(level.inside, base, next.inside, childBase, FLOORS + 1);
+            System.arraycopy(level.insideCount, base, next.insideCount, childBase, FLOORS + 1);
+            System.arraycopy(level.insideWeight, base, next.insideWeight, childBase, FLOORS + 1);
+            final double delivered = next.inside[childBase + floor];
+            final int exiting = next.insideCount[childBase + floor] + level.unknown[node];
+            next.weight[child] = level.weight[node] / next.insideWeight[childBase + floor] / level.unknownWeight[node];
+            next.inside[childBase + floor] = 0;
+            next.insideCount[childBase + floor] = 0;
+            next.insideWeight[childBase + floor] = 1;
+            next.floor[child] = floor;
+            next.first[child] = level.first[node];
+            next.doorsOpenAt[child] = doorsOpenAt;
+            next.visited[child] = level.visited[node] | 1 << floor;
+            next.load[child] = load - exiting;
+            next.free[child] = level.free[node] + exiting;
+            next.unknown[child] = 0;
+            next.unknownWeight[child] = 1;
+
+            engine.collectCandidates(game, id, floor, doorsOpenAt, candidates);
+            final double picked = board(next, child, next.free[child]);
+            final Parameters parameters = engine.parameters;
+            final double value = (picked + delivered * parameters.insideWeight) * (1 - Math.abs(floor - from) * parameters.distancePenalty);
+            next.score[child] = level.score[node] + weight * value;
+        }
+
+        /** the best candidates up to free places get in, returns their value */
+        private double board(Level level, int node, int free) {
+            final Candidates candidates = this.candidates;
+            final int base = node * (FLOORS + 1);
+            final int taking = Math.min(free, candidates.count);
+            double value = 0;
+            for (int k = 0; k < taking; k++) {
+                int best = k;
+                for (int i = k + 1; i < candidates.count; i++) {
+                    if(candidates.value[i] > candidates.value[best]) {
+                        best = i;
+                    }
+                }
+                final double bestValue = candidates.value[best];
+                final int dest = candidates.dest[best];
+                final double weight = candidates.weight[best];
+                candidates.swap(best, k);
+                value += bestValue;
+                level.weight[node] *= weight;
+                if(dest != PassengerRoutes.UNKNOWN) {
+                    level.inside[base + dest] += bestValue;
+                    level.insideCount[base + dest]++;
+                    level.insideWeight[base + dest] *= weight;
+                } else {
+                    level.unknown[node]++;
+                    level.unknownWeight[node] *= weight;
+                }
+            }
+            level.load[node] += taking;
+            level.free[node] -= taking;
+            return value;
+        }
+
+        /** leaves the BEAM best nodes */
+        private static void keepBest(Level level) {
+            if(level.size <= BEAM) {
+                return;
+            }
+            for (int k = 0; k < BEAM; k++) {
+                int best = k;
+                for (int i = k + 1; i < level.size; i++) {
+                    if(level.score[i] > level.score[best]) {
+                        best = i;
+                    }
+                }
+                swap(level, k, best);
+            }
+            level.size = BEAM;
+        }
+
+        private static void swap(Level level, int a, int b) {
+            if(a == b) {
+                return;
+            }
+            swap(level.floor, a, b);
+            swap(level.first, a, b);
+            swap(level.doorsOpenAt, a, b);
+            swap(level.free, a, b);
+            swap(level.load, a, b);
+            swap(level.weight, a, b);
+            swap(level.unknown, a, b);
+            swap(level.unknownWeight, a, b);
+            swap(level.visited, a, b);
+            swap(level.score, a, b);
+            for (int f = 0; f <= FLOORS; f++) {
+                final int ia = a * (FLOORS + 1) + f;
+                final int ib = b * (FLOORS + 1) + f;
+                swap(level.inside, ia, ib);
+                swap(level.insideCount, ia, ib);
+                swap(level.insideWeight, ia, ib);
+            }
+        }
+
+        private static void swap(int[] array, int a, int b) {
+            final int value = array[a];
+            array[a] = array[b];
+            array[b] = value;
+        }
+
+        private static void swap(double[] array, int a, int b) {
+            final double value = array[a];
+            array[a] = array[b];
+            array[b] = value;
+        }
     }
 
-    private double averageTravel(int floor) {
-        return IntStream.rangeClosed(2, 9)
-                .filter(destFloor -> destFloor != floor)
-                .map(destFloor -> Math.abs(destFloor - floor))
-                .sum() / 9.0; // should be /7 but it works a bit worse
+    /**
+     * Travel times of every elevator to every floor, computed once per tick from its position and load.
+     * Going up an elevator is slower with every passenger's weight, and by another 10% when more than half full,
+     * going down it is always TICKS_PER_FLOOR.
+     * With -Dstrategy.validateKinematics=true the arrival predicted at departure is compared with the observed one
+     * and a summary is printed at the end of the game.
+     */
+    private static class Kinematics {
+        static final boolean VALIDATE = Boolean.getBoolean("strategy.validateKinematics");
+        private static final int MAX_ERROR = 20; // histogram range
+
+        final double[] ticksPerFloorUp = new double[ELEVATORS + 1];
+        final int[][] ticksToFloor = new int[ELEVATORS + 1][FLOORS + 1]; // [elevatorId][floor] from the current position
+        final int[][] doorsOpenAt = new int[ELEVATORS + 1][FLOORS + 1]; // [elevatorId][floor] if sent there now
+
+        // validation
+        private final int[] predictedArrival = new int[ELEVATORS + 1]; // 0 - not moving
+        private final int[] predictedFloor = new int[ELEVATORS + 1];
+        private final boolean[] predictedUp = new boolean[ELEVATORS + 1];
+        private final int[][] errors = new int[2][2 * MAX_ERROR + 1]; // [up][observed - predicted]
+        private int validated;
+        private int maxError;
+
+        void update(List<Elevator> elevators, int tick) {
+            for (int e = 0; e < elevators.size(); e++) {
+                final Elevator elevator = elevators.get(e);
+                final int id = elevator.getId();
+                final List<Passenger> inside = elevator.getPassengers();
+                double ticksPerFloor = TICKS_PER_FLOOR;
+                for (int i = 0; i < inside.size(); i++) {
+                    ticksPerFloor *= inside.get(i).getWeight();
+                }
+                if(inside.size() > 10) {
+                    ticksPerFloor *= 1.1;
+                }
+                ticksPerFloorUp[id] = ticksPerFloor;
+
+                final double y = elevator.getY();
+                final int state = elevator.getState();
+                // doors have to stay open a bit, and to close if they are open
+                final int departure = state == ELEVATOR_MOVING ? 0 :
+                        Math.max(0, TICKS_TO_STAY_OPEN - elevator.getTimeOnFloor()) + (state == ELEVATOR_FILLING ? DOORS_TIME : 0);
+                final int floorNow = elevator.getFloor();
+                for (int floor = 1; floor <= FLOORS; floor++) {
+                    final int ticks = floorNow > floor ?
+                            (int) Math.ceil(TICKS_PER_FLOOR * (y - floor)) :
+                            (int) Math.ceil(ticksPerFloor * (floor - y));
+                    ticksToFloor[id][floor] = ticks;
+                    doorsOpenAt[id][floor] = tick + departure + ticks + DOORS_TIME;
+                }
+
+                if(VALIDATE) {
+                    validate(elevator, id, state, tick);
+                }
+            }
+        }
+
+        private void validate(Elevator elevator, int id, int state, int tick) {
+            if(state == ELEVATOR_MOVING) {
+                if(predictedArrival[id] == 0 || predictedFloor[id] != elevator.getNextFloor()) {
+                    predictedArrival[id] = tick + ticksToFloor[id][elevator.getNextFloor()];
+                    predictedFloor[id] = elevator.getNextFloor();
+                    predictedUp[id] = elevator.getNextFloor() > elevator.getY();
+                }
+            } else if(predictedArrival[id] != 0) {
+                if(state == ELEVATOR_OPENING && elevator.getFloor() == predictedFloor[id]) {
+                    final int error = (tick - elevator.getTimeOnFloor()) - predictedArrival[id];
+                    errors[predictedUp[id] ? 1 : 0][Math.max(-MAX_ERROR, Math.min(MAX_ERROR, error)) + MAX_ERROR]++;
+                    maxError = Math.max(maxError, Math.abs(error));
+                    validated++;
+                }
+                predictedArrival[id] = 0;
+            }
+        }
+
+        String validationSummary() {
+            final StringBuilder result = new StringBuilder("kinematics: " + validated + " arrivals, max error " + maxError + " ticks, observed - predicted");
+            for (int up = 1; up >= 0; up--) {
+                result.append(up == 1 ? ", up" : ", down");
+                for (int i = 0; i < errors[up].length; i++) {
+                    if(errors[up][i] > 0) {
+                        result.append(' ').append(i - MAX_ERROR).append(':').append(errors[up][i]);
+                    }
+                }
+            }
+            return result.toString();
+        }
     }
 
-    private double firstFloorProbability(int passengerId) {
-        final PassengerRoute route = passengerRoutes.get(passengerId);
-        return route == null ? 0 : 1.0 / (6 - route.visited);
+    /**
+     * Floor x elevator arrival times, travel times and loads, computed once per tick
+     * and shared by all evaluations of our elevators.
+     */
+    private static class ArrivalTable {
+        static final int NONE = Integer.MAX_VALUE;
+
+        final int[][] exiting = new int[ELEVATORS + 1][FLOORS + 1]; // [elevatorId][floor] passengers going to floor
+        final double[][] exitingValue = new double[ELEVATORS + 1][FLOORS + 1]; // [elevatorId][floor]
+        final double[][] exitingWeight = new double[ELEVATORS + 1][FLOORS + 1]; // [elevatorId][floor] product of their weights
+        final int[][] arriveAt = new int[FLOORS + 1][ELEVATORS + 1]; // [floor][elevatorId] doors open at, NONE if not coming
+        final int[][] freePlaces = new int[FLOORS + 1][ELEVATORS + 1]; // [floor][elevatorId] after passengers exit
+        final int[] fillingDistance = new int[FLOORS + 1]; // closest to the center not full FILLING elevator
+        // enemy elevators that may come, filled by OpponentModel
+        static final int POINTS = 3; // of the arrival time distribution, equally likely
+        final int[][] predictedAt = new int[FLOORS + 1][(ELEVATORS + 1) * POINTS]; // [floor][elevatorId * POINTS + point] doors open at
+        final double[][] predictedChance = new double[FLOORS + 1][ELEVATORS + 1]; // [floor][elevatorId]
+        final int[] predicted = new int[FLOORS + 1]; // bits by elevator id
+
+        void update(List<Elevator> elevators, int tick, Kinematics kinematics, String playerType) {
+            for (int floor = 1; floor <= FLOORS; floor++) {
+                Arrays.fill(arriveAt[floor], NONE);
+                fillingDistance[floor] = Integer.MAX_VALUE;
+                predicted[floor] = 0;
+            }
+            for (int e = 0; e < elevators.size(); e++) {
+                final Elevator elevator = elevators.get(e);
+                final int id = elevator.getId();
+                final List<Passenger> inside = elevator.getPassengers();
+                Arrays.fill(exiting[id], 0);
+                Arrays.fill(exitingValue[id], 0);
+                Arrays.fill(exitingWeight[id], 1);
+                for (int i = 0; i < inside.size(); i++) {
+                    final Passenger passenger = inside.get(i);
+                    exiting[id][passenger.getDestFloor()]++;
+                    exitingValue[id][passenger.getDestFloor()] += passengerValue(passenger, playerType);
+                    exitingWeight[id][passenger.getDestFloor()] *= passenger.getWeight();
+                }
+                for (int floor = 1; floor <= FLOORS; floor++) {
+                    freePlaces[floor][id] = MAX_PASSENGERS - (inside.size() - exiting[id][floor]);
+                }
+
+                final int state = elevator.getState();
+                final int floor = elevator.getFloor();
+                if(state == ELEVATOR_MOVING) {
+                    final int nextFloor = elevator.getNextFloor();
+                    final int arrive = kinematics.doorsOpenAt[id][nextFloor];
+                    if(arrive < MAX_TIME) {
+                        arriveAt[nextFloor][id] = arrive;
+                    }
+                } else if(state == ELEVATOR_OPENING || state == ELEVATOR_FILLING) {
+                    final int arrive = tick - elevator.getTimeOnFloor() + DOORS_TIME;
+                    if(arrive < MAX_TIME) {
+                        arriveAt[floor][id] = arrive;
+                    }
+                }
+                if(state == ELEVATOR_FILLING && inside.size() < MAX_PASSENGERS) {
+                    fillingDistance[floor] = Math.min(fillingDistance[floor], elevatorDistanceFromCenter(id));
+                }
+            }
+        }
+
+        /** at[] are the times the doors open on the floor, if the elevator goes there */
+        void predict(int floor, int id, int[] at, double chance) {
+            System.arraycopy(at, 0, predictedAt[floor], id * POINTS, POINTS);
+            predictedChance[floor][id] = chance;
+            predicted[floor] |= 1 << id;
+        }
+
+        /**
+         * The chance that no predicted elevator arrives before arriveAt and takes a passenger waiting since the tick,
+         * with the weight of the predictions.
+         */
+        double uncontested(int floor, int arriveAt, int since, double weight) {
+            double result = 1;
+            for (int bits = predicted[floor]; bits != 0; bits &= bits - 1) {
+                final int id = Integer.numberOfTrailingZeros(bits);
+                int arriving = 0;
+                for (int point = id * POINTS; point < (id + 1) * POINTS; point++) {
+                    final int at = predictedAt[floor][point];
+                    if(at < arriveAt && since < at) {
+                        arriving++;
+                    }
+                }
+                if(arriving > 0) {
+                    result *= 1 - predictedChance[floor][id] * arriving / POINTS * weight;
+                }
+            }
+            return result;
+        }
     }
 
-    private static class ExpectedPassenger {
-        final int id;
-        final String type;
-        final int floor;
-        final int tick;
-        final String kind;
+    /**
+     * Predicts where standing enemy elevators go and when, from their departures seen in this game.
+     * They leave after a stay on the floor taken from the histogram of the stays so far, longer than the current one:
+     * the 1/6, 1/2 and 5/6 quantiles of it, as ArrivalTable.POINTS equally likely departure times.
+     * The next floor is chosen by its rank among the destinations of the passengers inside: the most common one,
+     * the second one, another one, or a floor nobody inside goes to, with the frequencies of the ranks so far.
+     * The next floor set when the doors close may be a decoy, it is trusted as often as it was right.
+     * Experimental: it showed no gain in self-play, so it is off unless -Dstrategy.competitionWeight is above 0.
+     */
+    private static class OpponentModel {
+        static final double WEIGHT = Double.parseDouble(System.getProperty("strategy.competitionWeight", "0")); // of the predicted enemy arrivals, 0 - off
+        private static final int STAY_BUCKET = 20; // ticks
+        private static final int STAY_BUCKETS = 100; // the last one is open-ended
+        private static final int RANKS = 4;
+        private static final int OTHER = 2;
+        private static final int NOBODY = 3;
 
-        ExpectedPassenger(int id, String type, int floor, int tick, String kind) {
-            this.id = id;
-            this.type = type;
-            this.floor = floor;
-            this.tick = tick;
-            this.kind = kind;
+        private final int[] stays = new int[STAY_BUCKETS];
+        private final double[] rankCounts = {4, 2, 1, 1}; // the prior
+        private double declaredRight = 1;
+        private double declaredWrong = 1;
+        private final boolean[] standing = new boolean[ELEVATORS + 1];
+        private final byte[][] rank = new byte[ELEVATORS + 1][FLOORS + 1]; // [elevatorId][floor] at the last standing tick
+        private final int[] stay = new int[ELEVATORS + 1]; // timeOnFloor at the last standing tick
+        private final int[] declared = new int[ELEVATORS + 1]; // next floor at the last standing tick, 0 - none
+        private final int[] going = new int[FLOORS + 1]; // passengers inside by destination
+        private final int[] floorsOfRank = new int[RANKS];
+        private final int[] leaveAt = new int[ArrivalTable.POINTS];
+        private final int[] at = new int[ArrivalTable.POINTS];
+
+        void update(List<Elevator> elevators, int tick, Kinematics kinematics, ArrivalTable arrivals, String playerType) {
+            for (int e = 0; e < elevators.size(); e++) {
+                final Elevator elevator = elevators.get(e);
+                if(elevator.getType().equals(playerType)) {
+                    continue;
+                }
+                final int id = elevator.getId();
+                final int state = elevator.getState();
+                if(state == ELEVATOR_MOVING || state == ELEVATOR_OPENING) {
+                    if(standing[id] && state == ELEVATOR_MOVING) {
+                        learn(id, elevator.getNextFloor());
+                    }
+                    standing[id] = false;
+                    continue;
+                }
+                final int floor = elevator.getFloor();
+                standing[id] = true;
+                stay[id] = elevator.getTimeOnFloor();
+                declared[id] = state != ELEVATOR_FILLING && elevator.getNextFloor() != null && elevator.getNextFloor() != floor ? elevator.getNextFloor() : 0;
+                rank(id, floor, elevator.getPassengers());
+
+                expectedStay(stay[id], leaveAt);
+                for (int point = 0; point < ArrivalTable.POINTS; point++) {
+                    leaveAt[point] += tick - stay[id];
+                }
+                if(leaveAt[0] >= MAX_TIME) {
+                    continue;
+                }
+                double total = 0;
+                for (int r = 0; r < RANKS; r++) {
+                    if(floorsOfRank[r] > 0) {
+                        total += rankCounts[r];
+                    }
+                }
+                final double trusted = declared[id] != 0 ? declaredRight / (declaredRight + declaredWrong) : 0;
+                for (int f = 1; f <= FLOORS; f++) {
+                    if(f != floor) {
+                        final int r = rank[id][f];
+                        final double chance = (1 - trusted) * rankCounts[r] / total / floorsOfRank[r] + (f == declared[id] ? trusted : 0);
+                        for (int point = 0; point < ArrivalTable.POINTS; point++) {
+                            at[point] = leaveAt[point] + kinematics.ticksToFloor[id][f] + DOORS_TIME;
+                        }
+                        arrivals.predict(f, id, at, chance);
+                    }
+                }
+            }
+        }
+
+        private void learn(int id, int nextFloor) {
+            stays[Math.min(stay[id] / STAY_BUCKET, STAY_BUCKETS - 1)]++;
+            rankCounts[rank[id][nextFloor]]++;
+            if(declared[id] == nextFloor) {
+                declaredRight++;
+            } else if(declared[id] != 0) {
+                declaredWrong++;
+            }
+        }
+
+        /** the quantiles of the stays longer than the current into stays, ascending; all the current if there were none */
+        private void expectedStay(int current, int[] stays) {
+            final int from = Math.min(current / STAY_BUCKET + 1, STAY_BUCKETS - 1);
+            int longer = 0;
+            for (int b = from; b < STAY_BUCKETS; b++) {
+                longer += this.stays[b];
+            }
+            int point = 0;
+            int seen = 0;
+            for (int b = from; b < STAY_BUCKETS && longer > 0 && point < ArrivalTable.POINTS; b++) {
+                seen += this.stays[b];
+                // the middle of every POINTS-th of the stays: 1/6, 1/2, 5/6
+                while (point < ArrivalTable.POINTS && 2 * ArrivalTable.POINTS * seen >= (2 * point + 1) * longer) {
+                    stays[point++] = b * STAY_BUCKET + STAY_BUCKET / 2;
+                }
+            }
+            if(point < ArrivalTable.POINTS) {
+                Arrays.fill(stays, Math.max(current, DOORS_TIME + TICKS_TO_STAY_OPEN));
+            }
+        }
+
+        /** ranks the floors by the passengers inside going there, ties go to the closer floor */
+        private void rank(int id, int floor, List<Passenger> inside) {
+            Arrays.fill(going, 0);
+            for (int i = 0; i < inside.size(); i++) {
+                going[inside.get(i).getDestFloor()]++;
+            }
+            int first = 0;
+            int second = 0;
+            for (int f = 1; f <= FLOORS; f++) {
+                if(going[f] == 0 || f == floor) {
+                    continue;
+                }
+                if(first == 0 || closer(f, first, floor)) {
+                    second = first;
+                    first = f;
+                } else if(second == 0 || closer(f, second, floor)) {
+                    second = f;
+                }
+            }
+            Arrays.fill(floorsOfRank, 0);
+            for (int f = 1; f <= FLOORS; f++) {
+                final int r = f == first ? 0 : f == second ? 1 : going[f] > 0 ? OTHER : NOBODY;
+                rank[id][f] = (byte) r;
+                if(f != floor) {
+                    floorsOfRank[r]++;
+                }
+            }
+        }
+
+        private boolean closer(int f, int than, int floor) {
+            return going[f] > going[than] || going[f] == going[than] && Math.abs(f - floor) < Math.abs(than - floor);
+        }
+    }
+
+    /**
+     * The hand-tuned constants of the strategy as a vector, bounds are the range {@link Tuner} searches in.
+     */
+    static final class Parameters {
+        private static final double LOOKAHEAD = 0.75;
+
+        static final int EXPECTED_VALUE_LIMIT = 0; // expected value on the floor worth waiting for while FILLING
+        static final int FILLING_VALUE_LIMIT = 1; // value of the waiting passengers worth staying for while FILLING
+        static final int DISTANCE_PENALTY = 2; // per floor
+        static final int INSIDE_WEIGHT = 3;
+        static final int OPENING_TICKS = 4; // elevators take only valuable passengers from the first floor before it
+        static final int OPENING_DEST_NEAR = 5; // elevators 1, 2
+        static final int OPENING_DEST_MIDDLE = 6; // elevators 3, 4
+        static final int OPENING_DEST_FAR = 7; // elevators 5-8
+        static final int LOOKAHEAD_WEIGHT = 8; // of the stops after the next one, 0 - no lookahead
+        static final int COUNT = 9;
+
+        static final String[] NAMES = {"expectedValueLimit", "fillingValueLimit", "distancePenalty", "insideWeight",
+                "openingTicks", "openingDestNear", "openingDestMiddle", "openingDestFar", "lookaheadWeight"};
+        static final double[] DEFAULTS = {150, 100, 0.07, 2, 2000, 8, 7, 5, LOOKAHEAD};
+        static final double[] MIN = {0, 0, 0, 0, 0, 2, 2, 2, 0};
+        static final double[] MAX = {600, 400, 0.12, 5, 4000, 9, 9, 9, 1};
+        static final boolean[] INTEGER = {false, false, false, false, true, true, true, true, false};
+
+        static final Parameters DEFAULT = new Parameters(DEFAULTS);
+
+        final double expectedValueLimit;
+        final double fillingValueLimit;
+        final double distancePenalty;
+        final double insideWeight;
+        final int openingTicks;
+        final int openingDestNear;
+        final int openingDestMiddle;
+        final int openingDestFar;
+        final double lookaheadWeight;
+        private final double[] values;
+
+        /** values are clamped to the bounds, integer parameters are rounded */
+        Parameters(double[] values) {
+            this.values = new double[COUNT];
+            for (int i = 0; i < COUNT; i++) {
+                final double value = Math.max(MIN[i], Math.min(MAX[i], values[i]));
+                this.values[i] = INTEGER[i] ? Math.round(value) : value;
+            }
+            expectedValueLimit = this.values[EXPECTED_VALUE_LIMIT];
+            fillingValueLimit = this.values[FILLING_VALUE_LIMIT];
+            distancePenalty = this.values[DISTANCE_PENALTY];
+            insideWeight = this.values[INSIDE_WEIGHT];
+            openingTicks = (int) this.values[OPENING_TICKS];
+            openingDestNear = (int) this.values[OPENING_DEST_NEAR];
+            openingDestMiddle = (int) this.values[OPENING_DEST_MIDDLE];
+            openingDestFar = (int) this.values[OPENING_DEST_FAR];
+            lookaheadWeight = this.values[LOOKAHEAD_WEIGHT];
+        }
+
+        double get(int index) {
+            return values[index];
+        }
+
+        double[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Parameters && Arrays.equals(values, ((Parameters) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
         }
 
         @Override
         public String toString() {
-            return "id=" + id + ", t=" + tick + ", f=" + floor + ", t=" + type.substring(0, 1) + ", k=" + kind.substring(0, 1);
+            final StringBuilder result = new StringBuilder();
+            for (int i = 0; i < COUNT; i++) {
+                result.append(i == 0 ? "" : " ").append(NAMES[i]).append('=').append(format(i, values[i]));
+            }
+            return result.toString();
+        }
+
+        static String format(int index, double value) {
+            return INTEGER[index] ? Long.toString(Math.round(value)) : String.format(Locale.ROOT, "%.4g", value);
+        }
+    }
+
+    /** what changed since the previous tick, see {@link Changes} */
+    interface ChangeListener {
+        /** spawned, or came back after a visit with the next destination */
+        default void passengerAppeared(Passenger passenger) {
+        }
+
+        default void passengerStartedStairs(Passenger passenger) {
+        }
+
+        /** was WAITING on the previous tick, so it has chosen its next floor */
+        default void elevatorDeparted(Elevator elevator) {
         }
     }
 
-    private static class PassengerRoute {
-        final List<Integer> destinations = new ArrayList<>();
-        int visited;
+    /**
+     * Finds what changed by comparing the passengers and elevators with the previous update,
+     * per-id state is kept in primitive arrays and the listener only hears about the changes.
+     */
+    private static class Changes {
+        private static final int ABSENT = -1;
+
+        private final int[] seenAt = new int[MAX_PASSENGER_ID + 1]; // update number
+        private final byte[] passengerState = new byte[MAX_PASSENGER_ID + 1];
+        private final byte[] elevatorState = new byte[ELEVATORS + 1];
+        private int update = 0;
+
+        Changes() {
+            Arrays.fill(seenAt, ABSENT);
+            Arrays.fill(elevatorState, (byte) ABSENT);
+        }
+
+        void update(List<Passenger> passengers, List<Elevator> elevators, ChangeListener listener) {
+            for (int e = 0; e < elevators.size(); e++) {
+                final Elevator elevator = elevators.get(e);
+                if(elevatorState[elevator.getId()] == ELEVATOR_WAITING) {
+                    listener.elevatorDeparted(elevator);
+                }
+            }
+
+            final int previous = update++;
+            for (int i = 0; i < passengers.size(); i++) {
+                final Passenger passenger = passengers.get(i);
+                final int id = passenger.getId();
+                final int state = passenger.getState();
+                if(seenAt[id] != previous) {
+                    listener.passengerAppeared(passenger);
+                } else if(state != passengerState[id] && state == PASSENGER_MOVING_TO_FLOOR) {
+                    listener.passengerStartedStairs(passenger);
+                }
+                seenAt[id] = update;
+                passengerState[id] = (byte) state;
+            }
+
+            Arrays.fill(elevatorState, (byte) ABSENT);
+            for (int e = 0; e < elevators.size(); e++) {
+                final Elevator elevator = elevators.get(e);
+                elevatorState[elevator.getId()] = (byte) (int) elevator.getState();
+            }
+        }
     }
 
-    private static class ArrivingElevator {
-        final Elevator elevator;
-        final int arriveAt;
-        final int freePlaces;
+    /**
+     * Routes of all passengers in flat arrays indexed by passenger id. A pair of passengers spawned together
+     * visits the same floors, so the route of a passenger is the longer of the two known routes.
+     */
+    private static class PassengerRoutes {
+        static final int UNKNOWN = 0;
+        private static final int VISITS = 5; // then the first floor
+
+        private final byte[] floors = new byte[(MAX_PASSENGER_ID + 1) * VISITS]; // id * VISITS + visit
+        private final byte[] known = new byte[MAX_PASSENGER_ID + 1]; // destinations seen, may be more than VISITS
+        private final byte[] visited = new byte[MAX_PASSENGER_ID + 1];
+        private final short[] pair = new short[MAX_PASSENGER_ID + 1]; // 0 - no route
 
-        ArrivingElevator(Elevator elevator, int arriveAt, int freePlaces) {
-            this.elevator = elevator;
-            this.arriveAt = arriveAt;
-            this.freePlaces = freePlaces;
+        void link(int id1, int id2) {
+            pair[id1] = (short) id2;
+            pair[id2] = (short) id1;
+        }
+
+        /** a destination seen when the passenger appears */
+        void add(int id, int floor) {
+            final int count = known[id];
+            if(count < VISITS) {
+                floors[id * VISITS + count] = (byte) floor;
+            }
+            known[id] = (byte) (count + 1);
+        }
+
+        void visit(int id) {
+            if(visited[id] < Byte.MAX_VALUE) {
+                visited[id]++;
+            }
+        }
+
+        /** the floor of the next visit, UNKNOWN if neither of the pair got there yet */
+        int nextFloor(int id) {
+            final int visit = visited[id];
+            if(visit == VISITS) {
+                return 1;
+            }
+            final int pairId = pair[id];
+            final int routeOf = known[id] > known[pairId] ? id : pairId;
+            return visit < Math.min(known[routeOf], VISITS) ? floors[routeOf * VISITS + visit] : UNKNOWN;
+        }
+
+        /** destinations seen so far, the index of the next one */
+        int known(int id) {
+            return Math.min(known[id], VISITS);
+        }
+
+        int visited(int id) {
+            return Math.min(visited[id], VISITS);
+        }
+    }
+
+    /**
+     * Destination frequencies by the index of the visit and the floor the passenger appears on, learned from the
+     * passengers of this game. The expected travel of every row is kept up to date, so a lookup is one array read.
+     * Rows start from PRIOR observations of the old guess: the first floor with 1 / (visits left + 1), others evenly.
+     */
+    private static class DestinationModel {
+        private static final int VISITS = PassengerRoutes.VISITS;
+        private static final double PRIOR = 8;
+
+        private final double[][][] counts = new double[VISITS + 1][FLOORS + 1][FLOORS + 1]; // [visit][from][dest]
+        private final double[][] travel = new double[VISITS + 1][FLOORS + 1]; // [visit][from]
+
+        DestinationModel() {
+            for (int visit = 0; visit <= VISITS; visit++) {
+                for (int from = 1; from <= FLOORS; from++) {
+                    final double[] row = counts[visit][from];
+                    final double first = visit == VISITS ? 1 : from == 1 ? 0 : 1.0 / (VISITS + 1 - visit);
+                    row[1] = PRIOR * first;
+                    for (int dest = 2; dest <= FLOORS; dest++) {
+                        if(dest != from) {
+                            row[dest] = PRIOR * (1 - first) / (from == 1 ? FLOORS - 1 : FLOORS - 2);
+                        }
+                    }
+                    refresh(visit, from);
+                }
+            }
+        }
+
+        void add(int visit, int from, int dest) {
+            counts[visit][from][dest]++;
+            refresh(visit, from);
+        }
+
+        /** expected floors to the destination of the visit */
+        double travel(int visit, int from) {
+            return travel[visit][from];
+        }
+
+        private void refresh(int visit, int from) {
+            final double[] row = counts[visit][from];
+            double sum = 0;
+            double weighted = 0;
+            for (int dest = 1; dest <= FLOORS; dest++) {
+                sum += row[dest];
+                weighted += row[dest] * Math.abs(dest - from);
+            }
+            travel[visit][from] = weighted / sum;
         }
     }
 }
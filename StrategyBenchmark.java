@@ -0,0 +1,241 @@
+package core;
+
+import core.API.Elevator;
+import core.API.Passenger;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time and allocation per call of the hot Strategy methods on early, mid, late and peak load game states.
+ * States come from seeded self-play in {@link Simulator}: the game is replayed up to the snapshot tick,
+ * so a snapshot is the same every run. onTick is measured over the following ticks of the same game,
+ * and so is calcExpectedPassengers: it consumes the changes of the tick, so it can't be called again on a snapshot.
+ * Usage: StrategyBenchmark [seed]
+ */
+public class StrategyBenchmark {
+    private static final int WARMUP_GAMES = 5;
+    private static final int ON_TICK_WINDOW = 200;
+    private static final int ON_TICK_ITERATIONS = 5;
+    private static final int WARMUP_MS = 300;
+    private static final int MEASURE_MS = 1000;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile double sink;
+
+    public static void main(String[] args) {
+        final long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        for (int i = 0; i < WARMUP_GAMES; i++) {
+            new Simulator(seed + i).play(new Strategy(), new Strategy());
+        }
+        final int peakTick = Math.min(findPeakTick(seed), Simulator.MAX_TIME - ON_TICK_WINDOW);
+        final String[] phases = {"early", "mid", "late", "peak"};
+        final int[] ticks = {300, 3600, 6500, peakTick};
+
+        System.out.printf("%-24s %-6s %6s %14s %12s%n", "benchmark", "phase", "tick", "ns/op", "B/op");
+        for (int i = 0; i < phases.length; i++) {
+            benchmarkOnTick(seed, phases[i], ticks[i]);
+            final Snapshot snapshot = Snapshot.capture(seed, ticks[i]);
+            benchmarkEvaluateFloor(snapshot, phases[i]);
+            benchmarkCanCall(snapshot, phases[i]);
+            benchmarkNextFloor(snapshot, phases[i]);
+        }
+    }
+
+    private static void benchmarkOnTick(long seed, String phase, int tick) {
+        for (int i = 0; i < 2; i++) { // warmup
+            Snapshot.capture(seed, tick).measureOnTick(ON_TICK_WINDOW);
+        }
+        long nanos = 0;
+        long bytes = 0;
+        long expectedPassengersNanos = 0;
+        for (int i = 0; i < ON_TICK_ITERATIONS; i++) {
+            final Snapshot snapshot = Snapshot.capture(seed, tick);
+            snapshot.measureOnTick(ON_TICK_WINDOW);
+            nanos += snapshot.strategy.nanos;
+            bytes += snapshot.strategy.bytes;
+            expectedPassengersNanos += snapshot.strategy.expectedPassengersNanos;
+        }
+        final int ops = ON_TICK_ITERATIONS * ON_TICK_WINDOW;
+        report("onTick", phase, tick, (double) nanos / ops, (double) bytes / ops);
+        report("calcExpectedPassengers", phase, tick, (double) expectedPassengersNanos / ops, Double.NaN);
+    }
+
+    private static void benchmarkEvaluateFloor(Snapshot snapshot, String phase) {
+        final MeasuredStrategy strategy = snapshot.strategy;
+        final List<Elevator> myElevators = strategy.myElevators;
+        measure("evaluateFloor", phase, snapshot.tick, myElevators.size() * 9, () -> {
+            double sum = 0;
+            for (int e = 0; e < myElevators.size(); e++) {
+                for (int floor = 1; floor <= 9; floor++) {
+                    sum += strategy.evaluateFloor(myElevators.get(e), floor);
+                }
+            }
+            sink = sum;
+        });
+    }
+
+    private static void benchmarkCanCall(Snapshot snapshot, String phase) {
+        final MeasuredStrategy strategy = snapshot.strategy;
+        final List<Elevator> myElevators = strategy.myElevators;
+        final List<Passenger> waiting = new ArrayList<>();
+        for (Passenger passenger : snapshot.passengers) {
+            if(passenger.getState() < 4) {
+                waiting.add(passenger);
+            }
+        }
+        if(waiting.isEmpty()) {
+            return;
+        }
+        measure("canCall", phase, snapshot.tick, myElevators.size() * waiting.size(), () -> {
+            int count = 0;
+            for (int e = 0; e < myElevators.size(); e++) {
+                for (int i = 0; i < waiting.size(); i++) {
+                    if(strategy.canCall(myElevators.get(e), waiting.get(i))) {
+                        count++;
+                    }
+                }
+            }
+            sink = count;
+        });
+    }
+
+    private static void benchmarkNextFloor(Snapshot snapshot, String phase) {
+        final MeasuredStrategy strategy = snapshot.strategy;
+        final int[] ids = new int[snapshot.passengers.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = snapshot.passengers.get(i).getId();
+        }
+        if(ids.length == 0) {
+            return;
+        }
+        measure("nextFloor", phase, snapshot.tick, ids.length, () -> {
+            int sum = 0;
+            for (int id : ids) {
+                sum += strategy.nextFloor(id);
+            }
+            sink = sum;
+        });
+    }
+
+    private static void measure(String name, String phase, int tick, int opsPerBatch, Runnable batch) {
+        final long warmupEnd = System.nanoTime() + WARMUP_MS * 1_000_000L;
+        while (System.nanoTime() < warmupEnd) {
+            batch.run();
+        }
+        long batches = 0;
+        final long bytesBefore = allocatedBytes();
+        final long start = System.nanoTime();
+        final long end = start + MEASURE_MS * 1_000_000L;
+        long now;
+        do {
+            for (int i = 0; i < 100; i++) {
+                batch.run();
+            }
+            batches += 100;
+            now = System.nanoTime();
+        } while (now < end);
+        final long bytes = allocatedBytes() - bytesBefore;
+        final double ops = (double) batches * opsPerBatch;
+        report(name, phase, tick, (now - start) / ops, bytes / ops);
+    }
+
+    /** NaN bytes - not measured */
+    private static void report(String name, String phase, int tick, double nanosPerOp, double bytesPerOp) {
+        final String bytes = Double.isNaN(bytesPerOp) ? "-" : String.format("%.1f", bytesPerOp);
+        System.out.printf("%-24s %-6s %6d %14.1f %12s%n", name, phase, tick, nanosPerOp, bytes);
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** the tick with the most passengers waiting on one floor */
+    private static int findPeakTick(long seed) {
+        final Simulator simulator = new Simulator(seed);
+        final MeasuredStrategy strategy = new MeasuredStrategy();
+        simulator.start(strategy, new Strategy());
+        int peakTick = 1;
+        int peak = -1;
+        while (simulator.step()) {
+            final int[] waiting = new int[10];
+            for (Passenger passenger : strategy.passengers) {
+                if(passenger.getState() < 4 && ++waiting[passenger.getFloor()] > peak) {
+                    peak = waiting[passenger.getFloor()];
+                    peakTick = simulator.tick();
+                }
+            }
+        }
+        return peakTick;
+    }
+
+    /** the first player's strategy right after onTick of the given tick, with the input of that tick */
+    private static class Snapshot {
+        final Simulator simulator;
+        final MeasuredStrategy strategy;
+        final int tick;
+        final List<Passenger> passengers = new ArrayList<>();
+
+        private Snapshot(Simulator simulator, MeasuredStrategy strategy, int tick) {
+            this.simulator = simulator;
+            this.strategy = strategy;
+            this.tick = tick;
+            passengers.addAll(strategy.passengers);
+        }
+
+        static Snapshot capture(long seed, int tick) {
+            final Simulator simulator = new Simulator(seed);
+            final MeasuredStrategy strategy = new MeasuredStrategy();
+            simulator.start(strategy, new Strategy());
+            while (simulator.tick() < tick && simulator.step()) {
+            }
+            return new Snapshot(simulator, strategy, tick);
+        }
+
+        void measureOnTick(int ticks) {
+            strategy.measuring = true;
+            for (int i = 0; i < ticks && simulator.step(); i++) {
+            }
+            strategy.measuring = false;
+        }
+    }
+
+    /** commands are buffered during onTick and passed to the simulator afterwards, so its maps and boxing don't count */
+    private static class MeasuredStrategy extends Strategy {
+        private final AllocationCheck.BufferedCommands buffer = new AllocationCheck.BufferedCommands();
+        final List<Passenger> passengers = new ArrayList<>();
+        List<Elevator> myElevators;
+        boolean measuring;
+        long nanos;
+        long bytes;
+        long expectedPassengersNanos;
+
+        @Override
+        void setCommands(Commands commands) {
+            buffer.target = commands;
+            super.setCommands(buffer);
+        }
+
+        @Override
+        public void onTick(List<Passenger> myPassengers, List<Elevator> myElevators, List<Passenger> enemyPassengers, List<Elevator> enemyElevators) {
+            if(measuring) {
+                final long phaseBefore = phaseNanos(Profiler.EXPECTED_PASSENGERS);
+                final long bytesBefore = allocatedBytes();
+                final long start = System.nanoTime();
+                super.onTick(myPassengers, myElevators, enemyPassengers, enemyElevators);
+                nanos += System.nanoTime() - start;
+                bytes += allocatedBytes() - bytesBefore;
+                expectedPassengersNanos += phaseNanos(Profiler.EXPECTED_PASSENGERS) - phaseBefore;
+            } else {
+                super.onTick(myPassengers, myElevators, enemyPassengers, enemyElevators);
+            }
+            buffer.flush();
+            passengers.clear();
+            passengers.addAll(myPassengers);
+            passengers.addAll(enemyPassengers);
+            this.myElevators = myElevators;
+        }
+    }
+}
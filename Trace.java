@@ -0,0 +1,126 @@
+package core;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typed strategy events in a preallocated binary ring buffer, fixed size records, oldest are overwritten.
+ * Turned on with -Dstrategy.trace=&lt;file&gt;, otherwise ENABLED is a constant false and the calls are dead code.
+ * Every game writes its own &lt;file&gt;.1, &lt;file&gt;.2, ... in the order they are created.
+ * Use {@link TraceDecoder} to read the file after the game.
+ */
+class Trace {
+    private static final String FILE = System.getProperty("strategy.trace");
+    static final boolean ENABLED = FILE != null;
+    private static final AtomicInteger TRACES = new AtomicInteger();
+
+    static final int MAGIC = 0x434c5452; // CLTR
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 32;
+
+    static final byte FLOOR_EVALUATION = 1;
+    static final byte ASSIGNMENT = 2;
+    static final byte GO_TO_FLOOR = 3;
+
+    static final byte REASON_BEST_FLOOR = 0;
+    static final byte REASON_FAKE_WHILE_FILLING = 1;
+
+    // record layout
+    static final int TYPE = 0;
+    static final int ELEVATOR = 1;
+    static final int FLOOR = 2;
+    static final int EXTRA = 3;
+    static final int TICK = 4;
+    static final int A = 8;
+    static final int B = 12;
+    static final int V1 = 16;
+    static final int V2 = 20;
+    static final int V3 = 24;
+    static final int V4 = 28;
+
+    private final String file;
+    private final ByteBuffer buffer;
+    private final int capacity; // records
+    private long written;
+
+    Trace(int capacity) {
+        this.file = ENABLED ? FILE + "." + TRACES.incrementAndGet() : null;
+        this.capacity = ENABLED ? capacity : 0;
+        this.buffer = ByteBuffer.allocate(this.capacity * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void floorEvaluation(int tick, int elevatorId, int floor, int passengers, double outsideValue, double correctedOutsideValue,
+                         int exitingPassengers, double insideValue, double result, int arriveAt) {
+        if(!ENABLED) {
+            return;
+        }
+        final int at = next(FLOOR_EVALUATION, tick, elevatorId, floor, exitingPassengers);
+        buffer.putInt(at + A, arriveAt);
+        buffer.putInt(at + B, passengers);
+        buffer.putFloat(at + V1, (float) outsideValue);
+        buffer.putFloat(at + V2, (float) correctedOutsideValue);
+        buffer.putFloat(at + V3, (float) insideValue);
+        buffer.putFloat(at + V4, (float) result);
+    }
+
+    void assignment(int tick, int elevatorId, int passengerId, int destFloor, boolean enemyPassenger, Integer calledElevator) {
+        if(!ENABLED) {
+            return;
+        }
+        final int at = next(ASSIGNMENT, tick, elevatorId, destFloor, enemyPassenger ? 1 : 0);
+        buffer.putInt(at + A, passengerId);
+        buffer.putInt(at + B, calledElevator != null ? calledElevator : 0);
+    }
+
+    void goToFloor(int tick, int elevatorId, int floor, byte reason, double value) {
+        if(!ENABLED) {
+            return;
+        }
+        final int at = next(GO_TO_FLOOR, tick, elevatorId, floor, reason);
+        buffer.putFloat(at + V4, (float) value);
+    }
+
+    /** writes the buffer (oldest record first) to the file of this trace */
+    void dump() {
+        if(!ENABLED) {
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeTo(out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        final int count = (int) Math.min(written, capacity);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(count);
+        out.write(header.array());
+        final int first = (int) ((written - count) % Math.max(1, capacity));
+        final byte[] bytes = buffer.array();
+        out.write(bytes, first * RECORD_SIZE, (count - first) * RECORD_SIZE);
+        if(first > 0) {
+            out.write(bytes, 0, first * RECORD_SIZE);
+        }
+    }
+
+    private int next(byte type, int tick, int elevatorId, int floor, int extra) {
+        final int at = (int) (written++ % capacity) * RECORD_SIZE;
+        buffer.put(at + TYPE, type);
+        buffer.put(at + ELEVATOR, (byte) elevatorId);
+        buffer.put(at + FLOOR, (byte) floor);
+        buffer.put(at + EXTRA, (byte) extra);
+        buffer.putInt(at + TICK, tick);
+        buffer.putInt(at + A, 0);
+        buffer.putInt(at + B, 0);
+        buffer.putLong(at + V1, 0);
+        buffer.putLong(at + V3, 0);
+        return at;
+    }
+}
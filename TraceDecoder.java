@@ -0,0 +1,88 @@
+package core;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Prints a {@link Trace} dump as text (the old log format) or CSV.
+ * Usage: TraceDecoder &lt;file&gt; [--csv]
+ */
+public class TraceDecoder {
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.err.println("usage: TraceDecoder <file> [--csv]");
+            System.exit(1);
+        }
+        final boolean csv = args.length > 1 && args[1].equals("--csv");
+        decode(ByteBuffer.wrap(Files.readAllBytes(Paths.get(args[0]))).order(ByteOrder.LITTLE_ENDIAN), csv, System.out);
+    }
+
+    static void decode(ByteBuffer buffer, boolean csv, PrintStream out) {
+        if(buffer.getInt(0) != Trace.MAGIC) {
+            throw new IllegalArgumentException("not a trace file");
+        }
+        if(buffer.getInt(4) != Trace.VERSION) {
+            throw new IllegalArgumentException("unsupported trace version " + buffer.getInt(4));
+        }
+        final int recordSize = buffer.getInt(8);
+        final int count = buffer.getInt(12);
+        if(csv) {
+            out.println("tick,event,elevator,floor,extra,a,b,v1,v2,v3,v4");
+        }
+        for (int i = 0; i < count; i++) {
+            final int at = Trace.HEADER_SIZE + i * recordSize;
+            final byte type = buffer.get(at + Trace.TYPE);
+            final int elevator = buffer.get(at + Trace.ELEVATOR);
+            final int floor = buffer.get(at + Trace.FLOOR);
+            final int extra = buffer.get(at + Trace.EXTRA) & 0xff;
+            final int tick = buffer.getInt(at + Trace.TICK);
+            final int a = buffer.getInt(at + Trace.A);
+            final int b = buffer.getInt(at + Trace.B);
+            final float v1 = buffer.getFloat(at + Trace.V1);
+            final float v2 = buffer.getFloat(at + Trace.V2);
+            final float v3 = buffer.getFloat(at + Trace.V3);
+            final float v4 = buffer.getFloat(at + Trace.V4);
+            if(csv) {
+                out.println(tick + "," + eventName(type) + "," + elevator + "," + floor + "," + extra + "," + a + "," + b + "," +
+                        v1 + "," + v2 + "," + v3 + "," + v4);
+                continue;
+            }
+            switch (type) {
+                case Trace.FLOOR_EVALUATION:
+                    out.println(tick + " evFl e" + elevator + ">" + floor +
+                            " o" + b + "!" + (int) v1 + "!" + (int) v2 +
+                            " i" + extra + "!" + (int) v3 +
+                            " r" + (int) v4 +
+                            " ar" + a);
+                    break;
+                case Trace.ASSIGNMENT:
+                    out.println(tick + " assign e" + elevator + ": " + (extra == 1 ? "e" : "m") + a + ">" + floor +
+                            (b != 0 ? " was e" + b : ""));
+                    break;
+                case Trace.GO_TO_FLOOR:
+                    out.println(tick + " goTo e" + elevator + ">" + floor +
+                            (extra == Trace.REASON_FAKE_WHILE_FILLING ? " fake" : " r" + (int) v4));
+                    break;
+                default:
+                    out.println(tick + " unknown event " + type);
+            }
+        }
+    }
+
+    private static String eventName(byte type) {
+        switch (type) {
+            case Trace.FLOOR_EVALUATION:
+                return "floor_evaluation";
+            case Trace.ASSIGNMENT:
+                return "assignment";
+            case Trace.GO_TO_FLOOR:
+                return "go_to_floor";
+            default:
+                return "unknown_" + type;
+        }
+    }
+}
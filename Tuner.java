@@ -0,0 +1,285 @@
+package core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Searches {@link Strategy.Parameters} by self-play in {@link Simulator}. Every candidate plays the same seeds
+ * against the default strategy once as each player, fitness is the average score difference per game.
+ * Games of a whole batch of candidates run in parallel on a fork-join pool with all cores, games of a candidate
+ * share its {@link Strategy.Engine}.
+ * <ul>
+ * <li>grid - each parameter alone over evenly spaced values of its range, the others at default</li>
+ * <li>random - uniform samples from the ranges</li>
+ * <li>es - evolution strategy with a diagonal covariance, a cut-down CMA-ES: weighted recombination
+ * of the best half, per-parameter step sizes from the selected steps</li>
+ * </ul>
+ * All evaluated candidates are written ranked by fitness to a tab-separated table.
+ * The lookahead planner and the tick watchdog depend on time, run with -Dstrategy.planBudgetNanos=0
+ * -Dstrategy.tickDeadlineNanos=0 to make games reproducible.
+ * Usage: Tuner [grid|random|es] [budget] [seeds] [seed] [output]
+ * budget is the number of values per parameter for grid, candidates for random and generations for es.
+ */
+public class Tuner {
+    private static final int POPULATION = 16;
+    private static final double INITIAL_STEP = 0.3; // of the range
+
+    private final int seeds;
+    private final long seed;
+    private final ForkJoinPool pool;
+    private final Map<Strategy.Parameters, Result> results = new LinkedHashMap<>();
+
+    public Tuner(int seeds, long seed, ForkJoinPool pool) {
+        this.seeds = seeds;
+        this.seed = seed;
+        this.pool = pool;
+    }
+
+    /** plays the games of all not yet evaluated candidates in parallel */
+    public List<Result> evaluate(List<Strategy.Parameters> candidates) {
+        final List<Strategy.Parameters> fresh = new ArrayList<>();
+        for (Strategy.Parameters candidate : candidates) {
+            if(!results.containsKey(candidate) && !fresh.contains(candidate)) {
+                fresh.add(candidate);
+            }
+        }
+        final int gamesPerCandidate = 2 * seeds;
+        final int[] differences = new int[fresh.size() * gamesPerCandidate];
+        final Strategy.Engine[] engines = new Strategy.Engine[fresh.size()];
+        for (int i = 0; i < engines.length; i++) {
+            engines[i] = new Strategy.Engine(fresh.get(i));
+        }
+        try {
+            pool.submit(() -> IntStream.range(0, differences.length).parallel().forEach(game -> {
+                final int index = game % gamesPerCandidate;
+                final boolean first = index % 2 == 0;
+                final long gameSeed = seed + index / 2;
+                final Simulator simulator = new Simulator(gameSeed);
+                final Strategy tuned = new Strategy(engines[game / gamesPerCandidate], new Strategy.Game(gameSeed));
+                final Strategy baseline = new Strategy(Strategy.Engine.DEFAULT, new Strategy.Game(~gameSeed));
+                final int[] score = first ? simulator.play(tuned, baseline) : simulator.play(baseline, tuned);
+                differences[game] = first ? score[0] - score[1] : score[1] - score[0];
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        for (int i = 0; i < fresh.size(); i++) {
+            results.put(fresh.get(i), new Result(fresh.get(i), Arrays.copyOfRange(differences, i * gamesPerCandidate, (i + 1) * gamesPerCandidate)));
+        }
+
+        final List<Result> evaluated = new ArrayList<>(candidates.size());
+        for (Strategy.Parameters candidate : candidates) {
+            evaluated.add(results.get(candidate));
+        }
+        return evaluated;
+    }
+
+    public void grid(int values) {
+        final List<Strategy.Parameters> candidates = new ArrayList<>();
+        candidates.add(Strategy.Parameters.DEFAULT);
+        for (int p = 0; p < Strategy.Parameters.COUNT; p++) {
+            for (int i = 0; i < values; i++) {
+                final double[] vector = Strategy.Parameters.DEFAULT.toArray();
+                vector[p] = denormalize(p, values == 1 ? 0.5 : (double) i / (values - 1));
+                candidates.add(new Strategy.Parameters(vector));
+            }
+        }
+        evaluate(candidates);
+    }
+
+    public void random(int candidates, Random random) {
+        final List<Strategy.Parameters> batch = new ArrayList<>();
+        batch.add(Strategy.Parameters.DEFAULT);
+        for (int c = 0; c < candidates; c++) {
+            final double[] vector = new double[Strategy.Parameters.COUNT];
+            for (int p = 0; p < vector.length; p++) {
+                vector[p] = denormalize(p, random.nextDouble());
+            }
+            batch.add(new Strategy.Parameters(vector));
+        }
+        evaluate(batch);
+    }
+
+    /** searches in the normalized [0, 1] cube starting from the defaults */
+    public void evolve(int generations, Random random) {
+        final int n = Strategy.Parameters.COUNT;
+        final int parents = POPULATION / 2;
+        final double[] weights = new double[parents];
+        double weightSum = 0;
+        for (int i = 0; i < parents; i++) {
+            weights[i] = Math.log(parents + 0.5) - Math.log(i + 1);
+            weightSum += weights[i];
+        }
+        for (int i = 0; i < parents; i++) {
+            weights[i] /= weightSum;
+        }
+
+        final double[] mean = normalize(Strategy.Parameters.DEFAULT);
+        final double[] step = new double[n];
+        Arrays.fill(step, INITIAL_STEP);
+        evaluate(Collections.singletonList(Strategy.Parameters.DEFAULT));
+
+        for (int generation = 0; generation < generations; generation++) {
+            final List<Strategy.Parameters> offspring = new ArrayList<>(POPULATION);
+            final double[][] points = new double[POPULATION][];
+            for (int k = 0; k < POPULATION; k++) {
+                final double[] point = new double[n];
+                for (int p = 0; p < n; p++) {
+                    point[p] = Math.max(0, Math.min(1, mean[p] + step[p] * random.nextGaussian()));
+                }
+                points[k] = point;
+                offspring.add(denormalize(point));
+            }
+            final List<Result> evaluated = evaluate(offspring);
+            final Integer[] order = new Integer[POPULATION];
+            for (int k = 0; k < POPULATION; k++) {
+                order[k] = k;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(evaluated.get(b).fitness, evaluated.get(a).fitness));
+
+            final double[] oldMean = mean.clone();
+            Arrays.fill(mean, 0);
+            for (int i = 0; i < parents; i++) {
+                for (int p = 0; p < n; p++) {
+                    mean[p] += weights[i] * points[order[i]][p];
+                }
+            }
+            for (int p = 0; p < n; p++) {
+                double variance = 0;
+                for (int i = 0; i < parents; i++) {
+                    final double d = points[order[i]][p] - oldMean[p];
+                    variance += weights[i] * d * d;
+                }
+                // blend the old and the selected step sizes, don't let a parameter freeze
+                step[p] = Math.max(0.02, Math.min(0.5, Math.sqrt(0.7 * step[p] * step[p] + 0.3 * variance)));
+            }
+            final Result best = evaluated.get(order[0]);
+            System.out.printf(Locale.ROOT, "generation %d: best %.1f, mean %s%n", generation + 1, best.fitness, denormalize(mean));
+        }
+        evaluate(Collections.singletonList(denormalize(mean)));
+    }
+
+    /** all evaluated candidates, the best first */
+    public List<Result> ranked() {
+        final List<Result> ranked = new ArrayList<>(results.values());
+        ranked.sort((a, b) -> Double.compare(b.fitness, a.fitness));
+        return ranked;
+    }
+
+    public void write(String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            out.print("rank\tfitness\tstderr\twins\tgames");
+            for (String name : Strategy.Parameters.NAMES) {
+                out.print('\t');
+                out.print(name);
+            }
+            out.println();
+            final List<Result> ranked = ranked();
+            for (int i = 0; i < ranked.size(); i++) {
+                out.println((i + 1) + "\t" + ranked.get(i).row());
+            }
+        }
+    }
+
+    private static double denormalize(int index, double value) {
+        return Strategy.Parameters.MIN[index] + value * (Strategy.Parameters.MAX[index] - Strategy.Parameters.MIN[index]);
+    }
+
+    private static Strategy.Parameters denormalize(double[] point) {
+        final double[] vector = new double[point.length];
+        for (int p = 0; p < point.length; p++) {
+            vector[p] = denormalize(p, point[p]);
+        }
+        return new Strategy.Parameters(vector);
+    }
+
+    private static double[] normalize(Strategy.Parameters parameters) {
+        final double[] point = new double[Strategy.Parameters.COUNT];
+        for (int p = 0; p < point.length; p++) {
+            point[p] = (parameters.get(p) - Strategy.Parameters.MIN[p]) / (Strategy.Parameters.MAX[p] - Strategy.Parameters.MIN[p]);
+        }
+        return point;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final String method = args.length > 0 ? args[0] : "es";
+        final int budget = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final int seeds = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        final long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        final String output = args.length > 4 ? args[4] : "tuning.tsv";
+
+        final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        final Tuner tuner = new Tuner(seeds, seed, pool);
+        final Random random = new Random(seed);
+        final long start = System.nanoTime();
+        switch (method) {
+            case "grid":
+                tuner.grid(budget);
+                break;
+            case "random":
+                tuner.random(budget, random);
+                break;
+            case "es":
+                tuner.evolve(budget, random);
+                break;
+            default:
+                System.err.println("usage: Tuner [grid|random|es] [budget] [seeds] [seed] [output]");
+                System.exit(1);
+        }
+        pool.shutdown();
+        tuner.write(output);
+
+        final List<Result> ranked = tuner.ranked();
+        final long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.println(ranked.size() + " candidates, " + ranked.size() * 2L * seeds + " games in " + ms + " ms, " + output);
+        for (int i = 0; i < Math.min(10, ranked.size()); i++) {
+            System.out.println((i + 1) + "\t" + ranked.get(i).row());
+        }
+    }
+
+    public static class Result {
+        final Strategy.Parameters parameters;
+        final double fitness;
+        final double standardError;
+        final int wins;
+        final int games;
+
+        Result(Strategy.Parameters parameters, int[] differences) {
+            this.parameters = parameters;
+            this.games = differences.length;
+            double sum = 0;
+            int wins = 0;
+            for (int difference : differences) {
+                sum += difference;
+                if(difference > 0) {
+                    wins++;
+                }
+            }
+            this.wins = wins;
+            this.fitness = sum / games;
+            double squares = 0;
+            for (int difference : differences) {
+                squares += (difference - fitness) * (difference - fitness);
+            }
+            this.standardError = games > 1 ? Math.sqrt(squares / (games - 1) / games) : 0;
+        }
+
+        String row() {
+            final StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%.1f\t%.1f\t%d\t%d", fitness, standardError, wins, games));
+            for (int p = 0; p < Strategy.Parameters.COUNT; p++) {
+                row.append('\t').append(Strategy.Parameters.format(p, parameters.get(p)));
+            }
+            return row.toString();
+        }
+    }
+}